@@ -0,0 +1,105 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ * In-memory HSQLDB database wired the same way as the sqlexecutor tests, one
+ * fresh database per benchmark trial.
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private final GenericApplicationContext context;
+    private final SqlExecutorProvider provider;
+    private final PooledDataSource pool;
+
+    BenchmarkDatabase() {
+        this(false);
+    }
+
+    BenchmarkDatabase(boolean pooled) {
+        String url = "jdbc:hsqldb:mem:benchmark" + DATABASES.incrementAndGet() + ";sql.syntax_pgs=true";
+        DataSource dataSource = new SimpleDriverDataSource(new org.hsqldb.jdbcDriver(), url, "sa", "");
+        this.pool = pooled ? new PooledDataSource(dataSource) : null;
+        this.context = new GenericApplicationContext();
+        this.context.registerBean(DataSource.class, () -> pooled ? pool : dataSource);
+        this.context.refresh();
+        this.provider = new SqlExecutorProvider(context);
+    }
+
+    SqlExecutorProvider provider() {
+        return provider;
+    }
+
+    void createRows(String table, int rows) throws SqlException {
+        provider.forSql("CREATE TABLE " + table + " (id BIGINT, str VARCHAR(64), amount NUMERIC(15,5));")
+                .executeDDL();
+        SqlExecutorProvider.SqlExecutor insert = provider.forSql(
+                "INSERT INTO " + table + " (id, str, amount) VALUES (:id, :str, :amount)");
+        for (int i = 0; i < rows; i++) {
+            insert.setParameter("id", (long) i)
+                    .setParameter("str", "row " + i)
+                    .setParameter("amount", i / 100.0)
+                    .addBatch();
+        }
+        insert.executeBatch();
+    }
+
+    /**
+     * Builds a query over the given table padded with extra select list
+     * columns and predicates until it reaches roughly {@code length} chars.
+     */
+    static String query(String table, int length) {
+        StringBuilder sql = new StringBuilder("select id, str, amount");
+        int column = 0;
+        while (sql.length() < length / 2) {
+            sql.append(", str as str_").append(column++);
+        }
+        sql.append(" from ").append(table).append(" where id >= :min");
+        int predicate = 0;
+        while (sql.length() < length) {
+            sql.append(" and (str <> 'order by ").append(predicate).append("' or id < ").append(predicate++)
+                    .append(")");
+        }
+        return sql.append(" order by id limit 100").toString();
+    }
+
+    @Override
+    public void close() throws SqlException {
+        provider.forSql("SHUTDOWN").executeDDL();
+        provider.destroy();
+        if (Objects.nonNull(pool)) {
+            pool.close();
+        }
+        context.close();
+    }
+
+}
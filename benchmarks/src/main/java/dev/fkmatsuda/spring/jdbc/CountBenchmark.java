@@ -0,0 +1,83 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CountBenchmark {
+
+    @Param({ "64", "1024", "8192" })
+    private int sqlLength;
+
+    @Param({ "1000" })
+    private int rowCount;
+
+    private BenchmarkDatabase database;
+    private String sql;
+
+    @Setup
+    public void setup() throws SqlException {
+        database = new BenchmarkDatabase();
+        database.createRows("count_rows", rowCount);
+        sql = BenchmarkDatabase.query("count_rows", sqlLength);
+    }
+
+    @TearDown
+    public void tearDown() throws SqlException {
+        database.close();
+    }
+
+    @Benchmark
+    public String rewrite() {
+        return SelectStatement.parse(sql).getCountSql();
+    }
+
+    @Benchmark
+    public String cachedRewrite() {
+        return database.provider().selectStatement(sql).getCountSql();
+    }
+
+    @Benchmark
+    public Long count() throws InvalidArgumentException {
+        return database.provider().forSql(sql).setParameter("min", 0L).count();
+    }
+
+}
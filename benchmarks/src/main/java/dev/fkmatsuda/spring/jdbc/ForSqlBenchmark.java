@@ -0,0 +1,88 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.fkmatsuda.spring.jdbc.SqlExecutorProvider.SqlExecutor;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForSqlBenchmark {
+
+    @Param({ "64", "1024", "8192" })
+    private int sqlLength;
+
+    @Param({ "1", "4", "16" })
+    private int parameterCount;
+
+    private BenchmarkDatabase database;
+    private String sql;
+    private String[] parameterNames;
+
+    @Setup
+    public void setup() {
+        database = new BenchmarkDatabase();
+        sql = BenchmarkDatabase.query("forsql_rows", sqlLength);
+        parameterNames = new String[parameterCount];
+        for (int i = 0; i < parameterCount; i++) {
+            parameterNames[i] = "p" + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SqlException {
+        database.close();
+    }
+
+    @Benchmark
+    public SqlExecutor forSql() {
+        return database.provider().forSql(sql);
+    }
+
+    @Benchmark
+    public SqlExecutor forSqlWithParameters() {
+        SqlExecutor executor = database.provider().forSql(sql);
+        for (int i = 0; i < parameterNames.length; i++) {
+            executor.setParameter(parameterNames[i], i);
+        }
+        return executor;
+    }
+
+}
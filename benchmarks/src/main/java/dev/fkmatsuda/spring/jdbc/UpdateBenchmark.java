@@ -0,0 +1,135 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.fkmatsuda.spring.jdbc.SqlExecutorProvider.SqlExecutor;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateBenchmark {
+
+    private static final int BATCH_ROWS = 1000;
+
+    @Param({ "1", "4", "16" })
+    private int parameterCount;
+
+    private BenchmarkDatabase database;
+    private String insertSql;
+    private String[] parameterNames;
+    private long id = 0;
+
+    @Setup
+    public void setup() throws SqlException {
+        database = new BenchmarkDatabase();
+        StringBuilder columns = new StringBuilder();
+        StringBuilder definition = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        parameterNames = new String[parameterCount];
+        for (int i = 0; i < parameterCount; i++) {
+            parameterNames[i] = "c" + i;
+            columns.append(i > 0 ? ", " : "").append(parameterNames[i]);
+            definition.append(i > 0 ? ", " : "").append(parameterNames[i]).append(" BIGINT");
+            values.append(i > 0 ? ", :" : ":").append(parameterNames[i]);
+        }
+        database.provider().forSql("CREATE TABLE update_rows (" + definition + ");").executeDDL();
+        insertSql = "INSERT INTO update_rows (" + columns + ") VALUES (" + values + ")";
+    }
+
+    @Setup(Level.Iteration)
+    public void truncate() throws SqlException {
+        database.provider().forSql("TRUNCATE TABLE update_rows").executeDDL();
+    }
+
+    @TearDown
+    public void tearDown() throws SqlException {
+        database.close();
+    }
+
+    @Benchmark
+    public void updatePerRow() throws SqlException {
+        bind(database.provider().forSql(insertSql)).update();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public int[][] batchUpdate() throws SqlException {
+        SqlExecutor executor = database.provider().forSql(insertSql);
+        for (int i = 0; i < BATCH_ROWS; i++) {
+            bind(executor).addBatch();
+        }
+        return executor.executeBatch();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public int[][] multiRowBatchUpdate() throws SqlException {
+        SqlExecutor executor = database.provider().forSql(insertSql).rewriteBatchedInserts();
+        for (int i = 0; i < BATCH_ROWS; i++) {
+            bind(executor).addBatch();
+        }
+        return executor.executeBatch();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public void preparedUpdatePerRow() throws SqlException, InvalidArgumentException {
+        try (PreparedSqlExecutor prepared = database.provider().forSql(insertSql).prepare()) {
+            for (int i = 0; i < BATCH_ROWS; i++) {
+                long value = id++;
+                for (String name : parameterNames) {
+                    prepared.setParameter(name, value);
+                }
+                prepared.update();
+            }
+        }
+    }
+
+    private SqlExecutor bind(SqlExecutor executor) {
+        long value = id++;
+        for (String name : parameterNames) {
+            executor.setParameter(name, value);
+        }
+        return executor;
+    }
+
+}
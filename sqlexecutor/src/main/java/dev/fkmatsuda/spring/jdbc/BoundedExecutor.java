@@ -0,0 +1,135 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs at most a fixed number of tasks at a time on a delegate executor. Tasks
+ * over the limit wait in a lock free queue instead of blocking the submitter,
+ * and are handed to the delegate as running tasks complete. A queued task the
+ * delegate rejects is failed through its rejection handler, or put back at the
+ * head of the queue when it has none, so that it is never silently dropped.
+ */
+class BoundedExecutor implements Executor {
+
+    private static final class Pending {
+
+        private final Runnable task;
+        private final Consumer<? super RejectedExecutionException> onRejected;
+
+        Pending(Runnable task, Consumer<? super RejectedExecutionException> onRejected) {
+            this.task = task;
+            this.onRejected = onRejected;
+        }
+
+    }
+
+    private final Executor delegate;
+    private final int limit;
+    private final Deque<Pending> queue = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger active = new AtomicInteger();
+
+    BoundedExecutor(Executor delegate, int limit) {
+        this.delegate = delegate;
+        this.limit = limit;
+    }
+
+    /**
+     * Queues the task, throwing the delegate rejection when it is rejected
+     * while handed over by this call. It then stays queued for a later
+     * attempt.
+     */
+    @Override
+    public void execute(Runnable task) {
+        queue.add(new Pending(task, null));
+        drain();
+    }
+
+    /**
+     * Queues the task, passing the delegate rejection to {@code onRejected}
+     * instead of throwing it, on whichever thread hands the task over.
+     */
+    void execute(Runnable task, Consumer<? super RejectedExecutionException> onRejected) {
+        queue.add(new Pending(task, onRejected));
+        drain();
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    int getActiveCount() {
+        return active.get();
+    }
+
+    int getQueuedCount() {
+        return queue.size();
+    }
+
+    private void drain() {
+        while (!queue.isEmpty()) {
+            int current = active.get();
+            if (current >= limit) {
+                return;
+            }
+            if (!active.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Pending pending = queue.poll();
+            if (Objects.isNull(pending)) {
+                active.decrementAndGet();
+                continue;
+            }
+            try {
+                delegate.execute(() -> run(pending.task));
+            } catch (RejectedExecutionException e) {
+                active.decrementAndGet();
+                if (Objects.isNull(pending.onRejected)) {
+                    queue.addFirst(pending);
+                    throw e;
+                }
+                pending.onRejected.accept(e);
+            }
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } finally {
+            active.decrementAndGet();
+            try {
+                drain();
+            } catch (RejectedExecutionException e) {
+                // the rejected task went back to the queue for the next submitter
+            }
+        }
+    }
+
+}
@@ -0,0 +1,365 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.LineNumberReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Streams CSV or newline delimited JSON files into a table through the named
+ * parameters of an INSERT statement. Records are read through a fixed size
+ * buffer and sent in JDBC batches, committing every
+ * {@link #setCommitInterval commit interval} rows; with a parallelism above one,
+ * up to that many transactions, and no more than the provider async concurrency,
+ * run at once on the provider async executor while the file is still being read.
+ */
+public class BulkLoader {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_COMMIT_INTERVAL = 10000;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final SqlExecutorProvider provider;
+    private final CachingNamedParameterJdbcTemplate jdbcTemplate;
+    private final String sql;
+    private final TransactionTemplate transactionTemplate;
+    private final Map<String, String> columnMapping = new HashMap<>();
+    private final Map<String, Integer> parameterTypes = new HashMap<>();
+
+    private DataFormat format = DataFormat.CSV;
+    private Charset charset = StandardCharsets.UTF_8;
+    private char delimiter = ',';
+    private boolean header = true;
+    private String[] columns = null;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+    private int parallelism = 1;
+    private BulkLoadProgressListener listener = null;
+
+    BulkLoader(SqlExecutorProvider provider, CachingNamedParameterJdbcTemplate jdbcTemplate, String sql) {
+        this.provider = provider;
+        this.jdbcTemplate = jdbcTemplate;
+        this.sql = sql;
+        this.transactionTemplate = new TransactionTemplate(
+                new DataSourceTransactionManager(jdbcTemplate.getJdbcTemplate().getDataSource()));
+    }
+
+    public BulkLoader setFormat(DataFormat format) {
+        this.format = Objects.requireNonNull(format);
+        return this;
+    }
+
+    public BulkLoader setCharset(Charset charset) {
+        this.charset = Objects.requireNonNull(charset);
+        return this;
+    }
+
+    public BulkLoader setDelimiter(char delimiter) {
+        this.delimiter = delimiter;
+        return this;
+    }
+
+    /**
+     * Whether the first CSV record holds the column names. Defaults to true.
+     */
+    public BulkLoader setHeader(boolean header) {
+        this.header = header;
+        return this;
+    }
+
+    /**
+     * Names the CSV columns by position, taking precedence over the header.
+     * Required when the file has no header.
+     */
+    public BulkLoader setColumns(String... columns) {
+        this.columns = columns.length > 0 ? columns.clone() : null;
+        return this;
+    }
+
+    /**
+     * Binds a column to a parameter of a different name. Other columns bind to
+     * the parameter of the same name.
+     */
+    public BulkLoader mapColumn(String column, String parameter) {
+        columnMapping.put(column, parameter);
+        return this;
+    }
+
+    /**
+     * Declares the {@link java.sql.Types SQL type} of a parameter, so text read
+     * from the file is converted by the driver rather than bound as a string.
+     */
+    public BulkLoader setParameterType(String parameter, int sqlType) {
+        parameterTypes.put(parameter, sqlType);
+        return this;
+    }
+
+    public BulkLoader setBatchSize(int batchSize) throws InvalidArgumentException {
+        if (batchSize < 1) {
+            throw new InvalidArgumentException("Batch size must be greater than zero");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public BulkLoader setCommitInterval(int commitInterval) throws InvalidArgumentException {
+        if (commitInterval < 1) {
+            throw new InvalidArgumentException("Commit interval must be greater than zero");
+        }
+        this.commitInterval = commitInterval;
+        return this;
+    }
+
+    /**
+     * Number of transactions allowed to run at once. Ignored inside an active
+     * transaction, where every row joins it on the calling thread.
+     */
+    public BulkLoader setParallelism(int parallelism) throws InvalidArgumentException {
+        if (parallelism < 1) {
+            throw new InvalidArgumentException("Parallelism must be greater than zero");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public BulkLoader setProgressListener(BulkLoadProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public BulkLoadResult load(Path file) throws IOException, SqlException, InvalidArgumentException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return load(Channels.newReader(channel, decoder(), -1));
+        }
+    }
+
+    /**
+     * Loads records read from the stream, which is left open.
+     */
+    public BulkLoadResult load(InputStream input) throws IOException, SqlException, InvalidArgumentException {
+        return load(Channels.newReader(Channels.newChannel(input), decoder(), -1));
+    }
+
+    private CharsetDecoder decoder() {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    private BulkLoadResult load(Reader reader) throws IOException, SqlException, InvalidArgumentException {
+        RecordSource source = format == DataFormat.CSV ? csvSource(reader) : ndjsonSource(reader);
+        LoadRun run = new LoadRun();
+        try {
+            List<MapSqlParameterSource> chunk = new ArrayList<>();
+            MapSqlParameterSource row;
+            while (!run.isFailed() && Objects.nonNull(row = source.next())) {
+                chunk.add(row);
+                if (chunk.size() >= commitInterval) {
+                    run.submit(chunk);
+                    chunk = new ArrayList<>();
+                }
+            }
+            if (!chunk.isEmpty() && !run.isFailed()) {
+                run.submit(chunk);
+            }
+        } finally {
+            run.await();
+            provider.invalidateResultCache(sql);
+        }
+        run.checkFailure();
+        return run.result();
+    }
+
+    @FunctionalInterface
+    private interface RecordSource {
+        MapSqlParameterSource next() throws IOException, InvalidArgumentException;
+    }
+
+    private RecordSource csvSource(Reader reader) throws IOException, InvalidArgumentException {
+        CsvRecordReader csv = new CsvRecordReader(reader, delimiter);
+        List<String> record = new ArrayList<>();
+        String[] names = columns;
+        if (header && csv.readRecord(record) && Objects.isNull(names)) {
+            names = record.toArray(new String[0]);
+        }
+        if (Objects.isNull(names)) {
+            if (header) {
+                return () -> null;
+            }
+            throw new InvalidArgumentException("Columns are required when the file has no header");
+        }
+        String[] parameters = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            parameters[i] = columnMapping.getOrDefault(names[i], names[i]);
+        }
+        return () -> {
+            long line = csv.getLine();
+            if (!csv.readRecord(record)) {
+                return null;
+            }
+            if (record.size() != parameters.length) {
+                throw new InvalidArgumentException(String.format("Record at line %d has %d fields, expected %d",
+                        line, record.size(), parameters.length));
+            }
+            MapSqlParameterSource row = newRow();
+            for (int i = 0; i < parameters.length; i++) {
+                row.addValue(parameters[i], record.get(i));
+            }
+            return row;
+        };
+    }
+
+    private RecordSource ndjsonSource(Reader reader) {
+        LineNumberReader lines = new LineNumberReader(reader, BUFFER_SIZE);
+        FlatJsonParser parser = new FlatJsonParser();
+        return () -> {
+            String line;
+            do {
+                line = lines.readLine();
+                if (Objects.isNull(line)) {
+                    return null;
+                }
+            } while (line.isBlank());
+            MapSqlParameterSource row = newRow();
+            try {
+                parser.parse(line, (name, value) -> row.addValue(columnMapping.getOrDefault(name, name), value));
+            } catch (InvalidArgumentException e) {
+                throw new InvalidArgumentException("Invalid record at line " + lines.getLineNumber(), e);
+            }
+            return row;
+        };
+    }
+
+    private MapSqlParameterSource newRow() {
+        MapSqlParameterSource row = new MapSqlParameterSource();
+        parameterTypes.forEach(row::registerSqlType);
+        return row;
+    }
+
+    private class LoadRun {
+
+        private final long started = System.nanoTime();
+        private final boolean inline = parallelism == 1
+                || TransactionSynchronizationManager.isActualTransactionActive();
+        private final Semaphore permits = new Semaphore(parallelism);
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong transactions = new AtomicLong();
+
+        boolean isFailed() {
+            return Objects.nonNull(failure.get());
+        }
+
+        void submit(List<MapSqlParameterSource> chunk) {
+            if (inline) {
+                runChunk(chunk);
+                return;
+            }
+            permits.acquireUninterruptibly();
+            if (isFailed()) {
+                permits.release();
+                return;
+            }
+            // queued on the bounded executor, so the load stays within the
+            // provider async concurrency whatever its own parallelism
+            provider.boundedAsyncExecutor().execute(() -> {
+                try {
+                    runChunk(chunk);
+                } finally {
+                    permits.release();
+                }
+            }, e -> {
+                permits.release();
+                failure.compareAndSet(null, e);
+            });
+        }
+
+        void await() {
+            if (!inline) {
+                permits.acquireUninterruptibly(parallelism);
+                permits.release(parallelism);
+            }
+        }
+
+        void checkFailure() throws SqlException {
+            RuntimeException e = failure.get();
+            if (Objects.nonNull(e)) {
+                throw new SqlException(String.format("Bulk load failed after %d committed rows", rows.get()), e);
+            }
+        }
+
+        BulkLoadResult result() {
+            return new BulkLoadResult(rows.get(), transactions.get(), System.nanoTime() - started);
+        }
+
+        private void runChunk(List<MapSqlParameterSource> chunk) {
+            long start = provider.startTiming();
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    for (int from = 0; from < chunk.size(); from += batchSize) {
+                        List<MapSqlParameterSource> slice = chunk.subList(from,
+                                Math.min(chunk.size(), from + batchSize));
+                        jdbcTemplate.batchUpdate(sql, slice.toArray(new SqlParameterSource[0]));
+                    }
+                });
+                provider.recordExecution(SqlOperation.BATCH, sql, null, start, chunk.size(), null);
+            } catch (RuntimeException e) {
+                provider.recordExecution(SqlOperation.BATCH, sql, null, start, 0, e);
+                failure.compareAndSet(null, e);
+                return;
+            }
+            long committed = rows.addAndGet(chunk.size());
+            long committedTransactions = transactions.incrementAndGet();
+            if (Objects.nonNull(listener)) {
+                listener.onProgress(committed, committedTransactions,
+                        BulkLoadResult.rowsPerSecond(committed, System.nanoTime() - started));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.ParameterDisposer;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementCreatorFactory;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+class CachingNamedParameterJdbcTemplate extends NamedParameterJdbcTemplate {
+
+    private final SqlExecutorProvider provider;
+    private final SqlCache<ParsedSql> parsedSqlCache;
+
+    CachingNamedParameterJdbcTemplate(DataSource dataSource, SqlExecutorProvider provider, int cacheLimit) {
+        super(dataSource);
+        setCacheLimit(0);
+        this.provider = provider;
+        this.parsedSqlCache = new SqlCache<>(cacheLimit, NamedParameterUtils::parseSqlStatement);
+    }
+
+    @Override
+    protected PreparedStatementCreator getPreparedStatementCreator(String sql, SqlParameterSource paramSource,
+            Consumer<PreparedStatementCreatorFactory> customizer) {
+        InListExpansion inListExpansion = provider.getInListExpansion();
+        if (Objects.nonNull(inListExpansion)) {
+            InListExpansion.Expanded expanded = inListExpansion.expand(sql, paramSource);
+            if (Objects.nonNull(expanded)) {
+                return super.getPreparedStatementCreator(expanded.sql, expanded.parameters, customizer);
+            }
+        }
+        return super.getPreparedStatementCreator(sql, paramSource, customizer);
+    }
+
+    @Override
+    protected ParsedSql getParsedSql(String sql) {
+        return parsedSqlCache.get(sql);
+    }
+
+    SqlCache<ParsedSql> getParsedSqlCache() {
+        return parsedSqlCache;
+    }
+
+    PreparedStatementCreator getCursorStatementCreator(String sql, SqlParameterSource parameters, int fetchSize) {
+        PreparedStatementCreator creator = getPreparedStatementCreator(sql,
+                Objects.nonNull(parameters) ? parameters : EmptySqlParameterSource.INSTANCE, factory -> {
+                    factory.setResultSetType(ResultSet.TYPE_FORWARD_ONLY);
+                    factory.setUpdatableResults(false);
+                });
+        if (fetchSize > 0) {
+            return new FetchSizeStatementCreator(creator, fetchSize);
+        }
+        return creator;
+    }
+
+    private static class FetchSizeStatementCreator implements PreparedStatementCreator, SqlProvider, ParameterDisposer {
+
+        private final PreparedStatementCreator delegate;
+        private final int fetchSize;
+
+        FetchSizeStatementCreator(PreparedStatementCreator delegate, int fetchSize) {
+            this.delegate = delegate;
+            this.fetchSize = fetchSize;
+        }
+
+        @Override
+        public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+            PreparedStatement ps = delegate.createPreparedStatement(con);
+            ps.setFetchSize(fetchSize);
+            return ps;
+        }
+
+        @Override
+        public String getSql() {
+            return delegate instanceof SqlProvider ? ((SqlProvider) delegate).getSql() : null;
+        }
+
+        @Override
+        public void cleanupParameters() {
+            if (delegate instanceof ParameterDisposer) {
+                ((ParameterDisposer) delegate).cleanupParameters();
+            }
+        }
+
+    }
+
+}
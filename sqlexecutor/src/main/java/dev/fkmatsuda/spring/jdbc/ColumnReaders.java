@@ -0,0 +1,174 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Shared, stateless {@link ColumnReader}s for the common JDBC value types.
+ * Primitive readers return the JDBC default for SQL {@code NULL}; wrapper and
+ * object readers return {@code null}.
+ */
+final class ColumnReaders {
+
+    private static final Map<Class<?>, ColumnReader<?>> READERS = new HashMap<>();
+
+    static {
+        register(long.class, ResultSet::getLong);
+        register(int.class, ResultSet::getInt);
+        register(short.class, ResultSet::getShort);
+        register(byte.class, ResultSet::getByte);
+        register(double.class, ResultSet::getDouble);
+        register(float.class, ResultSet::getFloat);
+        register(boolean.class, ResultSet::getBoolean);
+        register(Long.class, (rs, column) -> {
+            long value = rs.getLong(column);
+            return rs.wasNull() ? null : value;
+        });
+        register(Integer.class, (rs, column) -> {
+            int value = rs.getInt(column);
+            return rs.wasNull() ? null : value;
+        });
+        register(Short.class, (rs, column) -> {
+            short value = rs.getShort(column);
+            return rs.wasNull() ? null : value;
+        });
+        register(Byte.class, (rs, column) -> {
+            byte value = rs.getByte(column);
+            return rs.wasNull() ? null : value;
+        });
+        register(Double.class, (rs, column) -> {
+            double value = rs.getDouble(column);
+            return rs.wasNull() ? null : value;
+        });
+        register(Float.class, (rs, column) -> {
+            float value = rs.getFloat(column);
+            return rs.wasNull() ? null : value;
+        });
+        register(Boolean.class, (rs, column) -> {
+            boolean value = rs.getBoolean(column);
+            return rs.wasNull() ? null : value;
+        });
+        register(String.class, ResultSet::getString);
+        register(BigDecimal.class, ResultSet::getBigDecimal);
+        register(BigInteger.class, (rs, column) -> {
+            BigDecimal value = rs.getBigDecimal(column);
+            return value == null ? null : value.toBigInteger();
+        });
+        register(byte[].class, ResultSet::getBytes);
+        register(Date.class, ResultSet::getDate);
+        register(Time.class, ResultSet::getTime);
+        register(Timestamp.class, ResultSet::getTimestamp);
+        register(LocalDate.class, (rs, column) -> {
+            Date value = rs.getDate(column);
+            return value == null ? null : value.toLocalDate();
+        });
+        register(LocalTime.class, (rs, column) -> {
+            Time value = rs.getTime(column);
+            return value == null ? null : value.toLocalTime();
+        });
+        register(LocalDateTime.class, (rs, column) -> {
+            Timestamp value = rs.getTimestamp(column);
+            return value == null ? null : value.toLocalDateTime();
+        });
+        register(Instant.class, (rs, column) -> {
+            Timestamp value = rs.getTimestamp(column);
+            return value == null ? null : value.toInstant();
+        });
+        register(OffsetDateTime.class, (rs, column) -> rs.getObject(column, OffsetDateTime.class));
+        register(UUID.class, (rs, column) -> {
+            Object value = rs.getObject(column);
+            if (value == null || value instanceof UUID) {
+                return (UUID) value;
+            }
+            if (value instanceof byte[]) {
+                return uuid((byte[]) value);
+            }
+            return UUID.fromString(value.toString());
+        });
+    }
+
+    private ColumnReaders() {
+    }
+
+    private static <T> void register(Class<T> type, ColumnReader<T> reader) {
+        READERS.put(type, reader);
+    }
+
+    /**
+     * Returns the reader for the type: a registered one, an enum reader by
+     * constant name, or a fallback through {@link ResultSet#getObject(int, Class)}.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static <T> ColumnReader<T> forType(Class<T> type) {
+        ColumnReader<?> reader = READERS.get(type);
+        if (reader != null) {
+            return (ColumnReader<T>) reader;
+        }
+        if (type.isEnum()) {
+            Class<? extends Enum> enumType = (Class<? extends Enum>) type;
+            return (rs, column) -> {
+                String name = rs.getString(column);
+                return name == null ? null : (T) Enum.valueOf(enumType, name);
+            };
+        }
+        if (type == Object.class) {
+            return (rs, column) -> (T) rs.getObject(column);
+        }
+        return (rs, column) -> rs.getObject(column, type);
+    }
+
+    /**
+     * Whether the type has a dedicated reader rather than the getObject fallback.
+     */
+    static boolean isSimpleType(Class<?> type) {
+        return READERS.containsKey(type) || type.isEnum();
+    }
+
+    private static UUID uuid(byte[] bytes) throws SQLException {
+        if (bytes.length != 16) {
+            throw new SQLException("Cannot convert " + bytes.length + " bytes to UUID");
+        }
+        long most = 0;
+        long least = 0;
+        for (int i = 0; i < 8; i++) {
+            most = (most << 8) | (bytes[i] & 0xFF);
+            least = (least << 8) | (bytes[i + 8] & 0xFF);
+        }
+        return new UUID(most, least);
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Maps rows to instances of a type through method handles resolved once from
+ * the result set metadata. Types with a no-argument constructor are populated
+ * through their setters; other types, records included, through the
+ * constructor whose parameter names match the columns. Simple value types read
+ * the first column. Column labels match property names ignoring case and
+ * underscores.
+ * <p>
+ * The resolved plan is kept and only checked against the column labels on the
+ * first row of each result set, so one instance serves every execution of a
+ * statement.
+ */
+class CompiledRowMapper<T> implements RowMapper<T> {
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType FACTORY_TYPE = MethodType.methodType(Object.class);
+    private static final MethodType SPREAD_FACTORY_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private static final Map<Class<?>, Object> PRIMITIVE_DEFAULTS = Map.of(
+            boolean.class, false,
+            char.class, '\0',
+            byte.class, (byte) 0,
+            short.class, (short) 0,
+            int.class, 0,
+            long.class, 0L,
+            float.class, 0f,
+            double.class, 0d);
+
+    private final Class<T> type;
+    private volatile Plan plan = null;
+
+    CompiledRowMapper(Class<T> type) {
+        this.type = Objects.requireNonNull(type);
+    }
+
+    Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Plan current = this.plan;
+        if (Objects.isNull(current) || (rowNum == 0 && !current.matches(rs.getMetaData()))) {
+            current = compile(rs.getMetaData());
+            this.plan = current;
+        }
+        try {
+            return (T) current.map(rs);
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new DataRetrievalFailureException("Could not map row to " + type.getName(), e);
+        }
+    }
+
+    private Plan compile(ResultSetMetaData metaData) throws SQLException {
+        String[] labels = new String[metaData.getColumnCount()];
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = metaData.getColumnLabel(i + 1);
+            columns.putIfAbsent(normalize(labels[i]), i + 1);
+        }
+        try {
+            if (ColumnReaders.isSimpleType(ClassUtils.resolvePrimitiveIfNecessary(type))) {
+                return new ScalarPlan(labels, ColumnReaders.forType(type));
+            }
+            Constructor<?> constructor = BeanUtils.getResolvableConstructor(type);
+            if (constructor.getParameterCount() == 0) {
+                return setterPlan(labels, columns, constructor);
+            }
+            return constructorPlan(labels, columns, constructor);
+        } catch (IllegalAccessException | IllegalStateException e) {
+            throw new InvalidDataAccessApiUsageException("Cannot map rows to " + type.getName(), e);
+        }
+    }
+
+    private Plan setterPlan(String[] labels, Map<String, Integer> columns, Constructor<?> constructor)
+            throws IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        ReflectionUtils.makeAccessible(constructor);
+        MethodHandle factory = lookup.unreflectConstructor(constructor).asType(FACTORY_TYPE);
+        List<Integer> indexes = new ArrayList<>();
+        List<ColumnReader<?>> readers = new ArrayList<>();
+        List<MethodHandle> setters = new ArrayList<>();
+        for (PropertyDescriptor property : BeanUtils.getPropertyDescriptors(type)) {
+            Method writeMethod = property.getWriteMethod();
+            Integer column = columns.get(normalize(property.getName()));
+            if (Objects.isNull(writeMethod) || Objects.isNull(column)) {
+                continue;
+            }
+            ReflectionUtils.makeAccessible(writeMethod);
+            indexes.add(column);
+            readers.add(ColumnReaders.forType(property.getPropertyType()));
+            setters.add(lookup.unreflect(writeMethod).asType(SETTER_TYPE));
+        }
+        return new SetterPlan(labels, factory, indexes.stream().mapToInt(Integer::intValue).toArray(),
+                readers.toArray(new ColumnReader<?>[0]), setters.toArray(new MethodHandle[0]));
+    }
+
+    private Plan constructorPlan(String[] labels, Map<String, Integer> columns, Constructor<?> constructor)
+            throws IllegalAccessException {
+        ReflectionUtils.makeAccessible(constructor);
+        String[] names = BeanUtils.getParameterNames(constructor);
+        Class<?>[] parameterTypes = constructor.getParameterTypes();
+        MethodHandle factory = MethodHandles.lookup().unreflectConstructor(constructor)
+                .asSpreader(Object[].class, parameterTypes.length)
+                .asType(SPREAD_FACTORY_TYPE);
+        int[] indexes = new int[names.length];
+        ColumnReader<?>[] readers = new ColumnReader<?>[names.length];
+        Object[] defaults = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Integer column = columns.get(normalize(names[i]));
+            indexes[i] = Objects.nonNull(column) ? column : -1;
+            readers[i] = ColumnReaders.forType(parameterTypes[i]);
+            if (parameterTypes[i].isPrimitive()) {
+                defaults[i] = PRIMITIVE_DEFAULTS.get(parameterTypes[i]);
+            }
+        }
+        return new ConstructorPlan(labels, factory, indexes, readers, defaults);
+    }
+
+    private static String normalize(String name) {
+        StringBuilder normalized = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c != '_' && c != ' ') {
+                normalized.append(c);
+            }
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private abstract static class Plan {
+
+        private final String[] labels;
+
+        Plan(String[] labels) {
+            this.labels = labels;
+        }
+
+        boolean matches(ResultSetMetaData metaData) throws SQLException {
+            if (metaData.getColumnCount() != labels.length) {
+                return false;
+            }
+            for (int i = 0; i < labels.length; i++) {
+                if (!labels[i].equals(metaData.getColumnLabel(i + 1))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        abstract Object map(ResultSet rs) throws Throwable;
+
+    }
+
+    private static class ScalarPlan extends Plan {
+
+        private final ColumnReader<?> reader;
+
+        ScalarPlan(String[] labels, ColumnReader<?> reader) {
+            super(labels);
+            this.reader = reader;
+        }
+
+        @Override
+        Object map(ResultSet rs) throws SQLException {
+            return reader.read(rs, 1);
+        }
+
+    }
+
+    private static class SetterPlan extends Plan {
+
+        private final MethodHandle factory;
+        private final int[] columns;
+        private final ColumnReader<?>[] readers;
+        private final MethodHandle[] setters;
+
+        SetterPlan(String[] labels, MethodHandle factory, int[] columns, ColumnReader<?>[] readers,
+                MethodHandle[] setters) {
+            super(labels);
+            this.factory = factory;
+            this.columns = columns;
+            this.readers = readers;
+            this.setters = setters;
+        }
+
+        @Override
+        Object map(ResultSet rs) throws Throwable {
+            Object bean = (Object) factory.invokeExact();
+            for (int i = 0; i < columns.length; i++) {
+                setters[i].invokeExact(bean, (Object) readers[i].read(rs, columns[i]));
+            }
+            return bean;
+        }
+
+    }
+
+    private static class ConstructorPlan extends Plan {
+
+        private final MethodHandle factory;
+        private final int[] columns;
+        private final ColumnReader<?>[] readers;
+        private final Object[] defaults;
+
+        ConstructorPlan(String[] labels, MethodHandle factory, int[] columns, ColumnReader<?>[] readers,
+                Object[] defaults) {
+            super(labels);
+            this.factory = factory;
+            this.columns = columns;
+            this.readers = readers;
+            this.defaults = defaults;
+        }
+
+        @Override
+        Object map(ResultSet rs) throws Throwable {
+            Object[] arguments = Arrays.copyOf(defaults, defaults.length);
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] > 0) {
+                    arguments[i] = readers[i].read(rs, columns[i]);
+                }
+            }
+            return (Object) factory.invokeExact(arguments);
+        }
+
+    }
+
+}
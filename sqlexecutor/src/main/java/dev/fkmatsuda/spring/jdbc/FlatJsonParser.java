@@ -0,0 +1,220 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.math.BigDecimal;
+import java.util.function.BiConsumer;
+
+/**
+ * Parses a single JSON object into name and value pairs. Strings, numbers,
+ * booleans and nulls become their Java counterparts; nested objects and arrays
+ * are passed on as their JSON text.
+ */
+class FlatJsonParser {
+
+    private final StringBuilder text = new StringBuilder();
+
+    private String json;
+    private int index;
+
+    void parse(String json, BiConsumer<String, Object> consumer) throws InvalidArgumentException {
+        this.json = json;
+        this.index = 0;
+        skipWhitespace();
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            index++;
+        } else {
+            while (true) {
+                skipWhitespace();
+                expect('"');
+                String name = readString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                consumer.accept(name, readValue());
+                skipWhitespace();
+                char c = next();
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+        skipWhitespace();
+        if (index < json.length()) {
+            throw error("Unexpected content after object");
+        }
+    }
+
+    private Object readValue() throws InvalidArgumentException {
+        char c = peek();
+        switch (c) {
+        case '"':
+            index++;
+            return readString();
+        case '{':
+        case '[':
+            return readNested();
+        case 't':
+            return readLiteral("true", Boolean.TRUE);
+        case 'f':
+            return readLiteral("false", Boolean.FALSE);
+        case 'n':
+            return readLiteral("null", null);
+        default:
+            return readNumber();
+        }
+    }
+
+    private String readString() throws InvalidArgumentException {
+        text.setLength(0);
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return text.toString();
+            }
+            if (c != '\\') {
+                text.append(c);
+                continue;
+            }
+            c = next();
+            switch (c) {
+            case 'b':
+                text.append('\b');
+                break;
+            case 'f':
+                text.append('\f');
+                break;
+            case 'n':
+                text.append('\n');
+                break;
+            case 'r':
+                text.append('\r');
+                break;
+            case 't':
+                text.append('\t');
+                break;
+            case 'u':
+                if (index + 4 > json.length()) {
+                    throw error("Invalid unicode escape");
+                }
+                try {
+                    text.append((char) Integer.parseInt(json.substring(index, index + 4), 16));
+                } catch (NumberFormatException e) {
+                    throw error("Invalid unicode escape");
+                }
+                index += 4;
+                break;
+            default:
+                text.append(c);
+            }
+        }
+    }
+
+    private String readNested() throws InvalidArgumentException {
+        int start = index;
+        int depth = 0;
+        do {
+            char c = next();
+            if (c == '"') {
+                while ((c = next()) != '"') {
+                    if (c == '\\') {
+                        next();
+                    }
+                }
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        } while (depth > 0);
+        return json.substring(start, index);
+    }
+
+    private Object readLiteral(String literal, Object value) throws InvalidArgumentException {
+        if (!json.startsWith(literal, index)) {
+            throw error("Unexpected value");
+        }
+        index += literal.length();
+        return value;
+    }
+
+    private Object readNumber() throws InvalidArgumentException {
+        int start = index;
+        boolean integral = true;
+        while (index < json.length()) {
+            char c = json.charAt(index);
+            if (c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+            } else if (!(c >= '0' && c <= '9') && c != '-' && c != '+') {
+                break;
+            }
+            index++;
+        }
+        if (start == index) {
+            throw error("Unexpected value");
+        }
+        String number = json.substring(start, index);
+        try {
+            if (integral && index - start < 19) {
+                return Long.valueOf(number);
+            }
+            return new BigDecimal(number);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (index < json.length() && Character.isWhitespace(json.charAt(index))) {
+            index++;
+        }
+    }
+
+    private char peek() throws InvalidArgumentException {
+        if (index >= json.length()) {
+            throw error("Unexpected end of line");
+        }
+        return json.charAt(index);
+    }
+
+    private char next() throws InvalidArgumentException {
+        char c = peek();
+        index++;
+        return c;
+    }
+
+    private void expect(char expected) throws InvalidArgumentException {
+        if (next() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+    }
+
+    private InvalidArgumentException error(String message) {
+        return new InvalidArgumentException(message + " at column " + (index + 1));
+    }
+
+}
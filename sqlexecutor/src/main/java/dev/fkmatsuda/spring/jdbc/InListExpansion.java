@@ -0,0 +1,347 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
+
+/**
+ * Controls how collection parameters used as {@code IN (:ids)} lists reach the
+ * database. Plain expansion gives every list size its own statement text, so a
+ * busy query floods the statement and plan caches and very large lists run
+ * into driver placeholder limits. Padding rounds each list up to the next
+ * power of two by repeating its last element, which keeps the results and
+ * bounds the distinct statements to a handful per query. Array binding sends
+ * the whole list as a single SQL array unnested by the database, one
+ * placeholder whatever the size, for element types with a registered array
+ * type. Lists beyond the maximum padded size with no array type keep their
+ * plain expansion rather than growing further towards the driver limits;
+ * splitting them over several statements is left to the caller.
+ */
+public class InListExpansion {
+
+    public enum Strategy {
+        /**
+         * Pads every list up to the maximum padded size to the next power of
+         * two.
+         */
+        PADDED,
+        /**
+         * Binds every list as a SQL array when its element type allows it.
+         */
+        ARRAY,
+        /**
+         * Pads lists up to the array threshold and binds larger ones as arrays.
+         */
+        AUTO
+    }
+
+    public static final int DEFAULT_ARRAY_THRESHOLD = 256;
+    public static final int DEFAULT_MAX_PADDED_SIZE = 1024;
+
+    private static final class ArrayType {
+
+        private final String elementTypeName;
+        private final String castType;
+
+        ArrayType(String elementTypeName, String castType) {
+            this.elementTypeName = elementTypeName;
+            this.castType = castType;
+        }
+
+    }
+
+    private final Map<Class<?>, ArrayType> arrayTypes = new ConcurrentHashMap<>();
+
+    private volatile Strategy strategy = Strategy.AUTO;
+    private volatile int arrayThreshold = DEFAULT_ARRAY_THRESHOLD;
+    private volatile int maxPaddedSize = DEFAULT_MAX_PADDED_SIZE;
+
+    public InListExpansion() {
+        registerArrayType(Long.class, "BIGINT", "BIGINT");
+        registerArrayType(Integer.class, "INTEGER", "INTEGER");
+        registerArrayType(Short.class, "SMALLINT", "SMALLINT");
+        registerArrayType(BigInteger.class, "NUMERIC", "NUMERIC(38)");
+        registerArrayType(String.class, "VARCHAR", "VARCHAR(32768)");
+        registerArrayType(UUID.class, "UUID", "UUID");
+        registerArrayType(LocalDate.class, "DATE", "DATE");
+    }
+
+    public InListExpansion setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Largest list still padded by the {@link Strategy#AUTO} strategy.
+     */
+    public InListExpansion setArrayThreshold(int arrayThreshold) throws InvalidArgumentException {
+        if (arrayThreshold < 1) {
+            throw new InvalidArgumentException("Array threshold must be positive");
+        }
+        this.arrayThreshold = arrayThreshold;
+        return this;
+    }
+
+    public int getArrayThreshold() {
+        return arrayThreshold;
+    }
+
+    /**
+     * Largest size a list is padded to. Longer lists that are not bound as
+     * arrays keep their plain expansion, as padding them would only add
+     * placeholders to statements already close to the driver limits.
+     */
+    public InListExpansion setMaxPaddedSize(int maxPaddedSize) throws InvalidArgumentException {
+        if (maxPaddedSize < 1) {
+            throw new InvalidArgumentException("Max padded size must be positive");
+        }
+        this.maxPaddedSize = maxPaddedSize;
+        return this;
+    }
+
+    public int getMaxPaddedSize() {
+        return maxPaddedSize;
+    }
+
+    /**
+     * Binds lists of {@code elementClass} as arrays created with
+     * {@code elementTypeName} and unnested as {@code CAST(:p AS castType ARRAY)}.
+     */
+    public InListExpansion registerArrayType(Class<?> elementClass, String elementTypeName, String castType) {
+        arrayTypes.put(elementClass, new ArrayType(elementTypeName, castType));
+        return this;
+    }
+
+    static int paddedSize(int size) {
+        return size <= 1 ? size : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /**
+     * Returns the statement and parameters to execute instead of the given
+     * ones, or {@code null} when no collection parameter needs rewriting. Only
+     * parameters used exclusively as {@code IN (:name)} lists are rewritten,
+     * any other use still gets the plain expansion of the list.
+     */
+    Expanded expand(String sql, SqlParameterSource parameters) {
+        String[] names = parameters.getParameterNames();
+        if (Objects.isNull(names)) {
+            return null;
+        }
+        Map<String, Collection<?>> lists = null;
+        for (String name : names) {
+            Object value = parameters.getValue(name);
+            if (value instanceof Collection && ((Collection<?>) value).size() >= 2) {
+                if (Objects.isNull(lists)) {
+                    lists = new HashMap<>();
+                }
+                lists.put(name, (Collection<?>) value);
+            }
+        }
+        if (Objects.isNull(lists)) {
+            return null;
+        }
+        Map<String, List<int[]>> inLists = inLists(sql, lists.keySet());
+        Map<String, Object> replaced = new HashMap<>();
+        Map<String, ArrayType> arrays = new HashMap<>();
+        Strategy strategy = this.strategy;
+        for (String name : inLists.keySet()) {
+            Collection<?> list = lists.get(name);
+            ArrayType arrayType = strategy == Strategy.PADDED
+                    || (strategy == Strategy.AUTO && list.size() <= arrayThreshold) ? null : arrayType(list);
+            int paddedSize = paddedSize(list.size());
+            if (Objects.nonNull(arrayType)) {
+                arrays.put(name, arrayType);
+                replaced.put(name, new ArrayValue(arrayType, list));
+            } else if (paddedSize != list.size() && paddedSize <= maxPaddedSize) {
+                replaced.put(name, pad(list));
+            }
+        }
+        if (replaced.isEmpty()) {
+            return null;
+        }
+        String expandedSql = arrays.isEmpty() ? sql : unnestInLists(sql, inLists, arrays);
+        MapSqlParameterSource expanded = new MapSqlParameterSource();
+        for (String name : names) {
+            if (replaced.containsKey(name)) {
+                Object value = replaced.get(name);
+                expanded.addValue(name, value, value instanceof ArrayValue ? Types.ARRAY : parameters.getSqlType(name));
+            } else {
+                expanded.addValue(name, parameters.getValue(name), parameters.getSqlType(name),
+                        parameters.getTypeName(name));
+            }
+        }
+        return new Expanded(expandedSql, expanded);
+    }
+
+    private ArrayType arrayType(Collection<?> list) {
+        Class<?> elementClass = null;
+        for (Object element : list) {
+            if (Objects.isNull(element) || (Objects.nonNull(elementClass) && element.getClass() != elementClass)) {
+                return null;
+            }
+            elementClass = element.getClass();
+        }
+        return arrayTypes.get(elementClass);
+    }
+
+    private static List<Object> pad(Collection<?> list) {
+        int size = paddedSize(list.size());
+        List<Object> padded = new ArrayList<>(size);
+        Object last = null;
+        for (Object element : list) {
+            padded.add(element);
+            last = element;
+        }
+        while (padded.size() < size) {
+            padded.add(last);
+        }
+        return padded;
+    }
+
+    /**
+     * Finds the occurrences of the given parameters, keeping only those used
+     * exclusively as {@code IN (:name)} lists, mapped to their ranges.
+     */
+    private static Map<String, List<int[]>> inLists(String sql, Set<String> names) {
+        Map<String, List<int[]>> inLists = new HashMap<>();
+        Set<String> elsewhere = new HashSet<>();
+        int i = 0;
+        while (i < sql.length()) {
+            int next = SqlScanner.skipLiteralOrComment(sql, i);
+            if (next != i) {
+                i = next;
+                continue;
+            }
+            next = SqlScanner.skipParameter(sql, i);
+            if (next == i || sql.charAt(i + 1) == ':') {
+                i = Math.max(next, i + 1);
+                continue;
+            }
+            String name = sql.substring(i + 1, next);
+            if (names.contains(name)) {
+                if (isInList(sql, i, next)) {
+                    inLists.computeIfAbsent(name, n -> new ArrayList<>()).add(new int[] { i, next });
+                } else {
+                    elsewhere.add(name);
+                }
+            }
+            i = next;
+        }
+        inLists.keySet().removeAll(elsewhere);
+        return inLists;
+    }
+
+    /**
+     * Rewrites each {@code IN (:name)} of the array parameters into a subquery
+     * over the unnested array.
+     */
+    private static String unnestInLists(String sql, Map<String, List<int[]>> inLists,
+            Map<String, ArrayType> arrays) {
+        List<int[]> ranges = new ArrayList<>();
+        for (String name : arrays.keySet()) {
+            ranges.addAll(inLists.get(name));
+        }
+        ranges.sort(Comparator.comparingInt(range -> range[0]));
+        StringBuilder rewritten = new StringBuilder(sql.length() + 64 * ranges.size());
+        int copied = 0;
+        for (int[] range : ranges) {
+            String name = sql.substring(range[0] + 1, range[1]);
+            rewritten.append(sql, copied, range[0]).append("SELECT * FROM UNNEST(CAST(:").append(name).append(" AS ")
+                    .append(arrays.get(name).castType).append(" ARRAY))");
+            copied = range[1];
+        }
+        return rewritten.append(sql, copied, sql.length()).toString();
+    }
+
+    private static boolean isInList(String sql, int start, int end) {
+        int after = SqlScanner.skipWhitespaceAndComments(sql, end);
+        if (after >= sql.length() || sql.charAt(after) != ')') {
+            return false;
+        }
+        int before = start - 1;
+        while (before >= 0 && Character.isWhitespace(sql.charAt(before))) {
+            before--;
+        }
+        if (before < 0 || sql.charAt(before) != '(') {
+            return false;
+        }
+        before--;
+        while (before >= 0 && Character.isWhitespace(sql.charAt(before))) {
+            before--;
+        }
+        return before >= 1 && SqlScanner.regionMatches(sql, before - 1, "in")
+                && (before < 2 || !SqlScanner.isIdentifierPart(sql.charAt(before - 2)));
+    }
+
+    static final class Expanded {
+
+        final String sql;
+        final SqlParameterSource parameters;
+
+        Expanded(String sql, SqlParameterSource parameters) {
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+
+    }
+
+    private static final class ArrayValue extends AbstractSqlTypeValue {
+
+        private final ArrayType arrayType;
+        private final Collection<?> elements;
+
+        ArrayValue(ArrayType arrayType, Collection<?> elements) {
+            this.arrayType = arrayType;
+            this.elements = elements;
+        }
+
+        @Override
+        protected Object createTypeValue(Connection con, int sqlType, String typeName) throws SQLException {
+            return con.createArrayOf(arrayType.elementTypeName, elements.toArray());
+        }
+
+    }
+
+}
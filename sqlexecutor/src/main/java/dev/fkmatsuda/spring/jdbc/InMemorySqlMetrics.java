@@ -0,0 +1,77 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link SqlMetrics} keeping per operation and fingerprint statistics in
+ * memory, useful for tests and simple diagnostics endpoints.
+ */
+public class InMemorySqlMetrics implements SqlMetrics {
+
+    private final SqlCache<String> fingerprints = new SqlCache<>(SqlExecutorProvider.DEFAULT_SQL_CACHE_LIMIT,
+            SqlFingerprint::of);
+    private final Map<SqlOperation, ConcurrentHashMap<String, SqlStatistics>> statistics = new EnumMap<>(
+            SqlOperation.class);
+    private final SqlStatistics connectionAcquire = new SqlStatistics();
+
+    public InMemorySqlMetrics() {
+        for (SqlOperation operation : SqlOperation.values()) {
+            statistics.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public void recordExecution(SqlOperation operation, String sql, long durationNanos, long rows,
+            Throwable error) {
+        statistics.get(operation)
+                .computeIfAbsent(fingerprints.get(sql), fingerprint -> new SqlStatistics())
+                .record(durationNanos, rows, error != null);
+    }
+
+    @Override
+    public void recordConnectionAcquire(long durationNanos, Throwable error) {
+        connectionAcquire.record(durationNanos, 0, error != null);
+    }
+
+    /**
+     * Statistics of the given operation for the fingerprint of {@code sql}, or
+     * null when it was never recorded.
+     */
+    public SqlStatistics getStatistics(SqlOperation operation, String sql) {
+        return statistics.get(operation).get(fingerprints.get(sql));
+    }
+
+    public Map<String, SqlStatistics> getStatistics(SqlOperation operation) {
+        return Collections.unmodifiableMap(new HashMap<>(statistics.get(operation)));
+    }
+
+    public SqlStatistics getConnectionAcquireStatistics() {
+        return connectionAcquire;
+    }
+
+}
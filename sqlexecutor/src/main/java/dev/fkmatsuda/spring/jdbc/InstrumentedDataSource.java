@@ -0,0 +1,85 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.springframework.core.InfrastructureProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Times connection acquisition for the provider metrics and lets the provider
+ * route reads to replicas. As an {@link InfrastructureProxy} it shares
+ * transaction bound connections with the target data source.
+ */
+class InstrumentedDataSource extends DelegatingDataSource implements InfrastructureProxy {
+
+    private final SqlExecutorProvider provider;
+
+    InstrumentedDataSource(DataSource targetDataSource, SqlExecutorProvider provider) {
+        super(targetDataSource);
+        this.provider = provider;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        SqlMetrics metrics = provider.getMetrics();
+        if (!metrics.isEnabled()) {
+            return provider.routeConnection(obtainTargetDataSource());
+        }
+        long start = System.nanoTime();
+        try {
+            Connection connection = provider.routeConnection(obtainTargetDataSource());
+            metrics.recordConnectionAcquire(System.nanoTime() - start, null);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            metrics.recordConnectionAcquire(System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        SqlMetrics metrics = provider.getMetrics();
+        if (!metrics.isEnabled()) {
+            return obtainTargetDataSource().getConnection(username, password);
+        }
+        long start = System.nanoTime();
+        try {
+            Connection connection = obtainTargetDataSource().getConnection(username, password);
+            metrics.recordConnectionAcquire(System.nanoTime() - start, null);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            metrics.recordConnectionAcquire(System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public Object getWrappedObject() {
+        return obtainTargetDataSource();
+    }
+
+}
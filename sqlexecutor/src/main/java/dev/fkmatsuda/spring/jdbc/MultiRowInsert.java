@@ -0,0 +1,184 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single row {@code INSERT ... VALUES (:a, :b)} split around its row of
+ * values so that many parameter sets can be sent as one multi-row
+ * {@code VALUES (?, ?), (?, ?), ...} statement.
+ */
+final class MultiRowInsert {
+
+    private final String prefix;
+    private final String row;
+    private final String suffix;
+    private final List<String> parameterNames;
+
+    private MultiRowInsert(String prefix, String row, String suffix, List<String> parameterNames) {
+        this.prefix = prefix;
+        this.row = row;
+        this.suffix = suffix;
+        this.parameterNames = parameterNames;
+    }
+
+    /**
+     * Returns the parsed statement, or {@code null} when it is not a single
+     * row insert whose named parameters all sit in its values row.
+     */
+    static MultiRowInsert parse(String sql) {
+        int start = SqlScanner.skipWhitespaceAndComments(sql, 0);
+        if (!SqlScanner.regionMatches(sql, start, "insert")) {
+            return null;
+        }
+        int values = findValues(sql, start);
+        if (values < 0) {
+            return null;
+        }
+        int open = SqlScanner.skipWhitespaceAndComments(sql, values + "values".length());
+        if (open >= sql.length() || sql.charAt(open) != '(') {
+            return null;
+        }
+        List<String> names = new ArrayList<>();
+        StringBuilder row = new StringBuilder();
+        int depth = 0;
+        int i = open;
+        while (i < sql.length()) {
+            int next = SqlScanner.skipLiteralOrComment(sql, i);
+            if (next != i) {
+                row.append(sql, i, next);
+                i = next;
+                continue;
+            }
+            char c = sql.charAt(i);
+            if (c == '?') {
+                return null;
+            }
+            if (c == ':') {
+                next = SqlScanner.skipParameter(sql, i);
+                if (next <= i + 1) {
+                    return null;
+                }
+                if (sql.charAt(i + 1) == ':') {
+                    row.append("::");
+                } else {
+                    names.add(sql.substring(i + 1, next));
+                    row.append('?');
+                }
+                i = next;
+                continue;
+            }
+            row.append(c);
+            i++;
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                break;
+            }
+        }
+        if (depth != 0) {
+            return null;
+        }
+        int after = SqlScanner.skipWhitespaceAndComments(sql, i);
+        if (after < sql.length() && sql.charAt(after) == ',') {
+            return null;
+        }
+        String suffix = sql.substring(i);
+        if (hasParameter(suffix) || hasParameter(sql.substring(0, open))) {
+            return null;
+        }
+        return new MultiRowInsert(sql.substring(0, open), row.toString(), suffix,
+                Collections.unmodifiableList(names));
+    }
+
+    private static int findValues(String sql, int from) {
+        int depth = 0;
+        int i = from;
+        while (i < sql.length()) {
+            int next = SqlScanner.skipLiteralOrComment(sql, i);
+            if (next != i) {
+                i = next;
+                continue;
+            }
+            char c = sql.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && SqlScanner.isIdentifierStart(c)) {
+                if ((i == 0 || !SqlScanner.isIdentifierPart(sql.charAt(i - 1)))
+                        && SqlScanner.regionMatches(sql, i, "values")) {
+                    return i;
+                }
+                i = SqlScanner.skipIdentifier(sql, i);
+                continue;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static boolean hasParameter(String sql) {
+        int i = 0;
+        while (i < sql.length()) {
+            int next = SqlScanner.skipLiteralOrComment(sql, i);
+            if (next != i) {
+                i = next;
+                continue;
+            }
+            char c = sql.charAt(i);
+            if (c == '?' || (c == ':' && i + 1 < sql.length() && sql.charAt(i + 1) != ':')) {
+                return true;
+            }
+            i = c == ':' ? i + 2 : i + 1;
+        }
+        return false;
+    }
+
+    List<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    /**
+     * Largest number of rows per statement keeping its placeholders within
+     * {@code maxParameters}.
+     */
+    int rowsPerStatement(int maxParameters) {
+        return parameterNames.isEmpty() ? maxParameters : maxParameters / parameterNames.size();
+    }
+
+    String sql(int rows) {
+        StringBuilder sql = new StringBuilder(prefix.length() + suffix.length() + rows * (row.length() + 2));
+        sql.append(prefix);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(row);
+        }
+        return sql.append(suffix).toString();
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Replaces bound parameter values before they are kept by a
+ * {@link SlowQueryLog}.
+ */
+@FunctionalInterface
+public interface ParameterRedactor {
+
+    String REDACTED = "***";
+
+    ParameterRedactor NONE = (name, value) -> value;
+
+    ParameterRedactor ALL = (name, value) -> REDACTED;
+
+    Object redact(String name, Object value);
+
+    /**
+     * Redacts the values of the given parameter names, ignoring case.
+     */
+    static ParameterRedactor names(String... names) {
+        Set<String> redacted = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        redacted.addAll(Arrays.asList(names));
+        return (name, value) -> redacted.contains(name) ? REDACTED : value;
+    }
+
+}
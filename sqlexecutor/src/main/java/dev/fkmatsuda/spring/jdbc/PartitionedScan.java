@@ -0,0 +1,381 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+/**
+ * Splits a query over a numeric key range into partitions read concurrently,
+ * each on its own connection, and merges their rows on the consuming thread.
+ * Ordered scans return rows sorted by key, partition after partition; unordered
+ * scans return rows as soon as any partition produces them. Partitions run on
+ * the bounded provider async executor, so a scan never holds more connections
+ * than the provider async concurrency, however high its own parallelism.
+ * <p>
+ * When the consumer stops asking for rows for longer than the idle timeout,
+ * readers give up and release their connections; the consumer then gets an
+ * {@link IllegalStateException} if it comes back. A consumer waiting on a slow
+ * partition is still asking.
+ * <p>
+ * Partitions do not take part in a transaction of the calling thread.
+ */
+public class PartitionedScan {
+
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(10);
+
+    private static final Object END = new Object();
+    private static final Object NULL_ROW = new Object();
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final SqlExecutorProvider provider;
+    private final CachingNamedParameterJdbcTemplate jdbcTemplate;
+    private final String bodySql;
+    private final MapSqlParameterSource parameters;
+    private final int fetchSize;
+    private final boolean readFromPrimary;
+    private final String keyColumn;
+    private final long from;
+    private final long to;
+
+    private int partitions;
+    private int parallelism;
+    private boolean ordered = false;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private long idleTimeoutNanos = DEFAULT_IDLE_TIMEOUT.toNanos();
+
+    PartitionedScan(SqlExecutorProvider provider, CachingNamedParameterJdbcTemplate jdbcTemplate, String bodySql,
+            MapSqlParameterSource parameters, int fetchSize, boolean readFromPrimary, String keyColumn, long from,
+            long to) {
+        this.provider = provider;
+        this.jdbcTemplate = jdbcTemplate;
+        this.bodySql = bodySql;
+        this.parameters = parameters;
+        this.fetchSize = fetchSize;
+        this.readFromPrimary = readFromPrimary;
+        this.keyColumn = keyColumn;
+        this.from = from;
+        this.to = to;
+        this.parallelism = provider.getAsyncConcurrency();
+        this.partitions = parallelism;
+    }
+
+    /**
+     * Number of key ranges the scan is split into. Defaults to the parallelism.
+     */
+    public PartitionedScan setPartitions(int partitions) throws InvalidArgumentException {
+        if (partitions < 1) {
+            throw new InvalidArgumentException("Partitions must be greater than zero");
+        }
+        this.partitions = partitions;
+        return this;
+    }
+
+    /**
+     * Number of partitions read at the same time, each holding a connection.
+     * Defaults to the provider async concurrency.
+     */
+    public PartitionedScan setParallelism(int parallelism) throws InvalidArgumentException {
+        if (parallelism < 1) {
+            throw new InvalidArgumentException("Parallelism must be greater than zero");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public PartitionedScan setOrdered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * Rows buffered per partition, or in total for unordered scans, before
+     * readers wait for the consumer.
+     */
+    public PartitionedScan setQueueSize(int queueSize) throws InvalidArgumentException {
+        if (queueSize < 1) {
+            throw new InvalidArgumentException("Queue size must be greater than zero");
+        }
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    /**
+     * How long readers wait on a consumer that takes no rows before they
+     * abandon the scan.
+     */
+    public PartitionedScan setIdleTimeout(Duration idleTimeout) throws InvalidArgumentException {
+        if (idleTimeout.isNegative() || idleTimeout.isZero()) {
+            throw new InvalidArgumentException("Idle timeout must be positive");
+        }
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        return this;
+    }
+
+    /**
+     * Starts the partitions and returns their merged rows. The stream must be
+     * closed to release the connections when it is not fully consumed.
+     */
+    public <R> Stream<R> stream(RowMapper<R> rowMapper) {
+        Merge<R> merge = new Merge<>(rowMapper);
+        merge.start();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merge,
+                ordered ? Spliterator.ORDERED : 0), false).onClose(merge::cancel);
+    }
+
+    /**
+     * Feeds every row to the sink on the calling thread.
+     */
+    public <R> void forEach(RowMapper<R> rowMapper, Consumer<? super R> sink) {
+        try (Stream<R> rows = stream(rowMapper)) {
+            rows.forEach(sink);
+        }
+    }
+
+    List<long[]> ranges() {
+        long span = to - from;
+        if (span <= 0) {
+            return List.of();
+        }
+        int count = (int) Math.min(partitions, span);
+        long step = span / count;
+        long remainder = span % count;
+        List<long[]> ranges = new ArrayList<>(count);
+        long lower = from;
+        for (int i = 0; i < count; i++) {
+            long upper = lower + step + (i < remainder ? 1 : 0);
+            ranges.add(new long[] { lower, upper });
+            lower = upper;
+        }
+        return ranges;
+    }
+
+    private String partitionSql() {
+        StringBuilder sql = new StringBuilder("select * from (").append(bodySql).append(") partition_q where ")
+                .append(keyColumn).append(" >= :partition_from and ")
+                .append(keyColumn).append(" < :partition_to");
+        if (ordered) {
+            sql.append(" order by ").append(keyColumn);
+        }
+        return sql.toString();
+    }
+
+    private static class Failure {
+
+        private final RuntimeException error;
+
+        Failure(RuntimeException error) {
+            this.error = error;
+        }
+
+    }
+
+    private static class Cancelled extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        Cancelled() {
+            super(null, null, false, false);
+        }
+
+    }
+
+    private class Merge<R> implements Iterator<R> {
+
+        private final RowMapper<R> rowMapper;
+        private final String sql = partitionSql();
+        private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+        private final List<long[]> ranges = ranges();
+
+        private final AtomicInteger nextRange = new AtomicInteger();
+
+        private volatile boolean cancelled = false;
+        private volatile RuntimeException abortedBy = null;
+        private volatile long lastPolled = System.nanoTime();
+        private int current = 0;
+        private int finished = 0;
+        private Object next = null;
+
+        Merge(RowMapper<R> rowMapper) {
+            this.rowMapper = rowMapper;
+        }
+
+        void start() {
+            if (ordered) {
+                for (int i = 0; i < ranges.size(); i++) {
+                    queues.add(new ArrayBlockingQueue<>(queueSize));
+                }
+            } else {
+                queues.add(new ArrayBlockingQueue<>(queueSize));
+            }
+            // each worker reads the next unclaimed range until none is left, which
+            // keeps the scan within its own parallelism on the shared executor
+            BoundedExecutor executor = provider.boundedAsyncExecutor();
+            for (int i = Math.min(parallelism, ranges.size()); i > 0; i--) {
+                executor.execute(this::work, this::abort);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            queues.forEach(BlockingQueue::clear);
+        }
+
+        private void abort(RuntimeException error) {
+            abortedBy = error;
+            cancel();
+        }
+
+        private void work() {
+            for (int i = nextRange.getAndIncrement(); i < ranges.size() && !cancelled; i = nextRange
+                    .getAndIncrement()) {
+                read(ranges.get(i), queues.get(ordered ? i : 0));
+            }
+        }
+
+        private void read(long[] range, BlockingQueue<Object> queue) {
+            if (cancelled) {
+                return;
+            }
+            MapSqlParameterSource partitionParameters = SqlExecutorProvider.copyOf(parameters)
+                    .addValue("partition_from", range[0])
+                    .addValue("partition_to", range[1]);
+            long start = provider.startTiming();
+            long[] rows = new long[1];
+            boolean read = !readFromPrimary && provider.beginRead();
+            try {
+                jdbcTemplate.getJdbcOperations().query(
+                        jdbcTemplate.getCursorStatementCreator(sql, partitionParameters, fetchSize),
+                        (RowCallbackHandler) rs -> {
+                            R row = rowMapper.mapRow(rs, (int) rows[0]++);
+                            put(queue, Objects.isNull(row) ? NULL_ROW : row);
+                        });
+                provider.recordExecution(SqlOperation.STREAM, sql, partitionParameters, start, rows[0], null);
+                put(queue, END);
+            } catch (Cancelled e) {
+                provider.recordExecution(SqlOperation.STREAM, sql, partitionParameters, start, rows[0], null);
+            } catch (RuntimeException e) {
+                provider.recordExecution(SqlOperation.STREAM, sql, partitionParameters, start, rows[0], e);
+                try {
+                    put(queue, new Failure(e));
+                } catch (Cancelled ignored) {
+                    // nobody is left to report to
+                }
+            } finally {
+                provider.endRead(read);
+            }
+        }
+
+        private void put(BlockingQueue<Object> queue, Object element) {
+            try {
+                while (!queue.offer(element, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (cancelled) {
+                        throw new Cancelled();
+                    }
+                    if (System.nanoTime() - lastPolled > idleTimeoutNanos) {
+                        abort(new IllegalStateException("Partitioned scan abandoned by its consumer"));
+                        throw new Cancelled();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new Cancelled();
+            }
+            if (cancelled) {
+                throw new Cancelled();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (Objects.isNull(next)) {
+                if (finished == ranges.size()) {
+                    return false;
+                }
+                Object element = take(queues.get(ordered ? current : 0));
+                if (element == END) {
+                    finished++;
+                    current++;
+                } else if (element instanceof Failure) {
+                    cancel();
+                    throw ((Failure) element).error;
+                } else {
+                    next = element;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public R next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object element = next;
+            next = null;
+            return element == NULL_ROW ? null : (R) element;
+        }
+
+        private Object take(BlockingQueue<Object> queue) {
+            try {
+                while (true) {
+                    if (Objects.nonNull(abortedBy)) {
+                        throw abortedBy;
+                    }
+                    // a consumer waiting on a slow partition is still there, so
+                    // readers of later partitions must not give up on it
+                    lastPolled = System.nanoTime();
+                    Object element = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (Objects.nonNull(element)) {
+                        lastPolled = System.nanoTime();
+                        return element;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                throw new IllegalStateException("Interrupted while waiting for partition rows", e);
+            }
+        }
+
+    }
+
+}
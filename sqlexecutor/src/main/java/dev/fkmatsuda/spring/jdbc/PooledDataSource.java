@@ -0,0 +1,556 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * A small connection pool over a data source that opens a physical connection
+ * per call, such as {@code SimpleDriverDataSource}. A thread first retries the
+ * connection it returned last, then scans the pool from a per thread offset,
+ * claiming idle connections with a compare and set rather than a lock. When
+ * the pool is full, threads wait in a queue in arrival order until the
+ * connection timeout. A connection returned while threads wait goes straight
+ * to the first of them without ever becoming idle, and new borrowers do not
+ * take idle connections ahead of waiting threads. Connections idle for longer
+ * than the validation threshold are checked with
+ * {@link Connection#isValid(int)} before being handed out, and connections
+ * returned with a changed auto-commit, read only, isolation, catalog or schema
+ * are rolled back and restored. Statements a borrower left open are closed
+ * when its connection is returned. Connections are only opened with the
+ * credentials of the target data source.
+ */
+public class PooledDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_POOL_SIZE = 10;
+    public static final Duration DEFAULT_CONNECTION_TIMEOUT = Duration.ofSeconds(30);
+    public static final Duration DEFAULT_VALIDATE_AFTER_IDLE = Duration.ofSeconds(1);
+
+    private static final int IDLE = 0;
+    private static final int IN_USE = 1;
+    private static final int REMOVED = -1;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final String CONNECTION_ERROR_STATE = "08";
+    private static final Object CANCELLED = new Object();
+    private static final Set<String> RESTORED_SETTERS = Set.of("setAutoCommit", "setReadOnly",
+            "setTransactionIsolation", "setCatalog", "setSchema");
+
+    private final List<PooledConnection> connections = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<PooledConnection> lastUsed = new ThreadLocal<>();
+    private final Queue<Waiter> waitQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder borrowNanos = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+
+    private volatile int maxPoolSize = DEFAULT_MAX_POOL_SIZE;
+    private volatile long connectionTimeoutNanos = DEFAULT_CONNECTION_TIMEOUT.toNanos();
+    private volatile long validateAfterIdleNanos = DEFAULT_VALIDATE_AFTER_IDLE.toNanos();
+    private volatile boolean closed = false;
+
+    public PooledDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    /**
+     * Named like the pool size property of other pools, so that
+     * {@link SqlExecutorProvider#getAsyncConcurrency()} follows it.
+     */
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public PooledDataSource setMaxPoolSize(int maxPoolSize) throws InvalidArgumentException {
+        if (maxPoolSize < 1) {
+            throw new InvalidArgumentException("Max pool size must be greater than zero");
+        }
+        this.maxPoolSize = maxPoolSize;
+        return this;
+    }
+
+    /**
+     * How long {@link #getConnection()} waits for a connection of a full pool
+     * before failing with a {@link SQLTransientConnectionException}.
+     */
+    public PooledDataSource setConnectionTimeout(Duration connectionTimeout) throws InvalidArgumentException {
+        if (connectionTimeout.isNegative()) {
+            throw new InvalidArgumentException("Connection timeout cannot be negative");
+        }
+        this.connectionTimeoutNanos = connectionTimeout.toNanos();
+        return this;
+    }
+
+    /**
+     * Idle time after which a connection is validated before reuse. Zero
+     * validates on every borrow.
+     */
+    public PooledDataSource setValidateAfterIdle(Duration validateAfterIdle) throws InvalidArgumentException {
+        if (validateAfterIdle.isNegative()) {
+            throw new InvalidArgumentException("Validation idle time cannot be negative");
+        }
+        this.validateAfterIdleNanos = validateAfterIdle.toNanos();
+        return this;
+    }
+
+    public int getTotalConnections() {
+        return total.get();
+    }
+
+    public int getIdleConnections() {
+        int idle = 0;
+        for (PooledConnection connection : connections) {
+            if (connection.state.get() == IDLE) {
+                idle++;
+            }
+        }
+        return idle;
+    }
+
+    public int getActiveConnections() {
+        return Math.max(0, total.get() - getIdleConnections());
+    }
+
+    public int getThreadsAwaitingConnection() {
+        return waiters.get();
+    }
+
+    public long getBorrowCount() {
+        return borrows.sum();
+    }
+
+    /**
+     * Total time spent in {@link #getConnection()}, including creating,
+     * validating and waiting for connections.
+     */
+    public Duration getBorrowTime() {
+        return Duration.ofNanos(borrowNanos.sum());
+    }
+
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailures.sum();
+    }
+
+    /**
+     * Not supported: pooled connections all use the credentials of the target
+     * data source, and a connection opened with other credentials would bypass
+     * the pool.
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Connection pool does not open connections with other credentials");
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        borrows.increment();
+        try {
+            PooledConnection connection = waitQueue.isEmpty() ? lastUsed.get() : null;
+            if (Objects.nonNull(connection) && connection.reserve() && isUsable(connection)) {
+                return connection.handle();
+            }
+            long deadline = start + connectionTimeoutNanos;
+            while (true) {
+                connection = waitQueue.isEmpty() ? reserveIdle() : null;
+                if (Objects.isNull(connection)) {
+                    connection = create();
+                    if (Objects.nonNull(connection)) {
+                        return connection.handle();
+                    }
+                    connection = await(deadline);
+                }
+                if (Objects.nonNull(connection) && isUsable(connection)) {
+                    return connection.handle();
+                }
+                if (System.nanoTime() - deadline >= 0) {
+                    timeouts.increment();
+                    throw new SQLTransientConnectionException(String.format("No connection available after %d ms",
+                            TimeUnit.NANOSECONDS.toMillis(connectionTimeoutNanos)));
+                }
+            }
+        } finally {
+            borrowNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private PooledConnection reserveIdle() {
+        int size = connections.size();
+        int offset = size == 0 ? 0 : (int) Math.floorMod(Thread.currentThread().getId(), (long) size);
+        for (int i = 0; i < size; i++) {
+            PooledConnection connection;
+            try {
+                connection = connections.get((offset + i) % size);
+            } catch (IndexOutOfBoundsException e) {
+                break;
+            }
+            if (connection.reserve()) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    private PooledConnection create() throws SQLException {
+        int count;
+        do {
+            count = total.get();
+            if (count >= maxPoolSize) {
+                return null;
+            }
+        } while (!total.compareAndSet(count, count + 1));
+        PooledConnection connection;
+        try {
+            connection = new PooledConnection(obtainTargetDataSource().getConnection());
+        } catch (SQLException | RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+        connections.add(connection);
+        created.increment();
+        if (closed) {
+            remove(connection);
+            throw new SQLException("Connection pool is closed");
+        }
+        return connection;
+    }
+
+    /**
+     * Waits in the queue for a returned connection, already reserved for this
+     * thread, or returns {@code null} at the deadline or as soon as the pool
+     * has room for a new connection.
+     */
+    private PooledConnection await(long deadline) throws SQLException {
+        Waiter waiter = new Waiter();
+        waitQueue.add(waiter);
+        waiters.incrementAndGet();
+        try {
+            // a connection returned before this thread was queued is left idle
+            PooledConnection connection = reserveIdle();
+            while (Objects.isNull(connection)) {
+                Object handed = waiter.slot.get();
+                if (handed instanceof PooledConnection) {
+                    return (PooledConnection) handed;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || total.get() < maxPoolSize || closed) {
+                    break;
+                }
+                LockSupport.parkNanos(this, Math.min(remaining, WAIT_SLICE_NANOS));
+                if (Thread.interrupted()) {
+                    PooledConnection handedOver = cancel(waiter, null);
+                    if (Objects.nonNull(handedOver)) {
+                        release(handedOver);
+                    }
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection");
+                }
+            }
+            connection = cancel(waiter, connection);
+            if (Objects.isNull(connection) && closed) {
+                throw new SQLException("Connection pool is closed");
+            }
+            return connection;
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Leaves the queue, returning the connection to use: the one found,
+     * or one handed over while leaving, passed on when one was found.
+     */
+    private PooledConnection cancel(Waiter waiter, PooledConnection found) {
+        waitQueue.remove(waiter);
+        if (waiter.slot.compareAndSet(null, CANCELLED)) {
+            return found;
+        }
+        PooledConnection handed = (PooledConnection) waiter.slot.get();
+        if (Objects.isNull(found)) {
+            return handed;
+        }
+        release(handed);
+        return found;
+    }
+
+    private boolean handOff(PooledConnection connection) {
+        Waiter waiter;
+        while (Objects.nonNull(waiter = waitQueue.poll())) {
+            if (waiter.slot.compareAndSet(null, connection)) {
+                LockSupport.unpark(waiter.thread);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isUsable(PooledConnection connection) {
+        if (System.nanoTime() - connection.releasedAt < validateAfterIdleNanos) {
+            return true;
+        }
+        boolean valid;
+        try {
+            valid = connection.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            valid = false;
+        }
+        if (!valid) {
+            validationFailures.increment();
+            remove(connection);
+        }
+        return valid;
+    }
+
+    private void release(PooledConnection connection) {
+        if (closed || connection.broken || !connection.restore()) {
+            remove(connection);
+            return;
+        }
+        connection.releasedAt = System.nanoTime();
+        lastUsed.set(connection);
+        while (!handOff(connection)) {
+            connection.state.set(IDLE);
+            // a thread queued meanwhile may have missed the idle connection
+            if (waitQueue.isEmpty() || !connection.reserve()) {
+                return;
+            }
+        }
+    }
+
+    private void remove(PooledConnection connection) {
+        if (connection.state.getAndSet(REMOVED) == REMOVED) {
+            return;
+        }
+        connections.remove(connection);
+        total.decrementAndGet();
+        try {
+            connection.physical.close();
+        } catch (SQLException e) {
+            // the connection is discarded either way
+        }
+    }
+
+    /**
+     * Closes the idle connections and those in use as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (PooledConnection connection : connections) {
+            if (connection.state.compareAndSet(IDLE, IN_USE)) {
+                remove(connection);
+            }
+        }
+        for (Waiter waiter : waitQueue) {
+            LockSupport.unpark(waiter.thread);
+        }
+    }
+
+    private static final class Waiter {
+
+        private final Thread thread = Thread.currentThread();
+        private final AtomicReference<Object> slot = new AtomicReference<>();
+
+    }
+
+    private final class PooledConnection {
+
+        private final Connection physical;
+        private final AtomicInteger state = new AtomicInteger(IN_USE);
+        private final boolean autoCommit;
+        private final boolean readOnly;
+        private final int isolation;
+        private final String catalog;
+        private final String schema;
+        private volatile long releasedAt = System.nanoTime();
+        private boolean dirty = false;
+        private boolean broken = false;
+
+        PooledConnection(Connection physical) throws SQLException {
+            this.physical = physical;
+            try {
+                this.autoCommit = physical.getAutoCommit();
+                this.readOnly = physical.isReadOnly();
+                this.isolation = physical.getTransactionIsolation();
+                this.catalog = physical.getCatalog();
+                this.schema = physical.getSchema();
+            } catch (SQLException | RuntimeException e) {
+                physical.close();
+                throw e;
+            }
+        }
+
+        boolean reserve() {
+            return state.compareAndSet(IDLE, IN_USE);
+        }
+
+        /**
+         * Rolls back and restores the state changed by the last borrower,
+         * returning whether the connection can be reused.
+         */
+        boolean restore() {
+            if (!dirty && autoCommit) {
+                return true;
+            }
+            try {
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                }
+                if (dirty) {
+                    physical.setAutoCommit(autoCommit);
+                    physical.setReadOnly(readOnly);
+                    physical.setTransactionIsolation(isolation);
+                    if (Objects.nonNull(catalog)) {
+                        physical.setCatalog(catalog);
+                    }
+                    if (Objects.nonNull(schema)) {
+                        physical.setSchema(schema);
+                    }
+                    dirty = false;
+                }
+                return true;
+            } catch (SQLException | RuntimeException e) {
+                return false;
+            }
+        }
+
+        /**
+         * A new proxy per borrow, so a borrower that keeps using its handle
+         * after closing it cannot reach the next borrower's connection.
+         * Statements are proxied as well, for their {@code getConnection()} to
+         * return the handle that JdbcTemplate streams close, and tracked to be
+         * closed with the handle.
+         */
+        Connection handle() {
+            AtomicBoolean handleClosed = new AtomicBoolean();
+            Set<Statement> statements = ConcurrentHashMap.newKeySet();
+            Connection[] handle = new Connection[1];
+            handle[0] = (Connection) Proxy.newProxyInstance(PooledDataSource.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                        String name = method.getName();
+                        if ("close".equals(name) && method.getParameterCount() == 0) {
+                            if (handleClosed.compareAndSet(false, true)) {
+                                closeStatements(statements);
+                                release(this);
+                            }
+                            return null;
+                        }
+                        if ("isClosed".equals(name) && method.getParameterCount() == 0) {
+                            return handleClosed.get() || physical.isClosed();
+                        }
+                        if (handleClosed.get()) {
+                            throw new SQLException("Connection is closed");
+                        }
+                        if (RESTORED_SETTERS.contains(name)) {
+                            dirty = true;
+                        }
+                        Object result = invoke(physical, method, args);
+                        if (result instanceof Statement && method.getReturnType().isInterface()) {
+                            statements.add((Statement) result);
+                            return statement((Statement) result, method.getReturnType(), handle[0], statements);
+                        }
+                        return result;
+                    });
+            return handle[0];
+        }
+
+        private Object statement(Statement statement, Class<?> type, Connection handle, Set<Statement> statements) {
+            return Proxy.newProxyInstance(PooledDataSource.class.getClassLoader(), new Class<?>[] { type },
+                    (proxy, method, args) -> {
+                        if ("getConnection".equals(method.getName()) && method.getParameterCount() == 0) {
+                            return handle;
+                        }
+                        if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+                            statements.remove(statement);
+                        }
+                        return invoke(statement, method, args);
+                    });
+        }
+
+        private void closeStatements(Set<Statement> statements) {
+            for (Statement statement : statements) {
+                try {
+                    statement.close();
+                } catch (SQLException | RuntimeException e) {
+                    broken = true;
+                }
+            }
+            statements.clear();
+        }
+
+        private Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getTargetException();
+                if (cause instanceof SQLException) {
+                    String sqlState = ((SQLException) cause).getSQLState();
+                    if (Objects.nonNull(sqlState) && sqlState.startsWith(CONNECTION_ERROR_STATE)) {
+                        broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+
+    }
+
+}
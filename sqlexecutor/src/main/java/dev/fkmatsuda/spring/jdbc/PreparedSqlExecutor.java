@@ -0,0 +1,286 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.core.namedparam.AbstractSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+
+/**
+ * Keeps one connection and one prepared statement for repeated executions of
+ * the same SQL, so each execution only binds the changed values and runs. The
+ * position of every named parameter is resolved once; values stay bound
+ * between executions until changed. Collection values cannot be bound, as
+ * they would change the statement.
+ * <p>
+ * Instances are not thread safe and must be closed to release the connection.
+ * Inside a transaction the transaction connection is used.
+ */
+public class PreparedSqlExecutor implements AutoCloseable {
+
+    private final SqlExecutorProvider provider;
+    private final DataSource dataSource;
+    private final SQLExceptionTranslator exceptionTranslator;
+    private final String sql;
+    private final Map<String, Integer> parameterIndexes = new HashMap<>();
+    private final String[] parameterNames;
+    private final int[][] positions;
+    private final Object[] values;
+    private final BitSet bound;
+
+    private Connection connection;
+    private PreparedStatement statement;
+
+    PreparedSqlExecutor(SqlExecutorProvider provider, CachingNamedParameterJdbcTemplate jdbcTemplate, String sql,
+            int fetchSize) {
+        this.provider = provider;
+        this.dataSource = jdbcTemplate.getJdbcTemplate().getDataSource();
+        this.exceptionTranslator = jdbcTemplate.getJdbcTemplate().getExceptionTranslator();
+        this.sql = sql;
+
+        ParsedSql parsedSql = jdbcTemplate.getParsedSqlCache().get(sql);
+        Object[] placeholders = NamedParameterUtils.buildValueArray(parsedSql, new PlaceholderNames(), null);
+        List<String> names = new ArrayList<>();
+        List<List<Integer>> namePositions = new ArrayList<>();
+        for (int i = 0; i < placeholders.length; i++) {
+            String name = (String) placeholders[i];
+            Integer index = parameterIndexes.get(name);
+            if (Objects.isNull(index)) {
+                index = names.size();
+                parameterIndexes.put(name, index);
+                names.add(name);
+                namePositions.add(new ArrayList<>());
+            }
+            namePositions.get(index).add(i + 1);
+        }
+        this.parameterNames = names.toArray(new String[0]);
+        this.positions = new int[parameterNames.length][];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = namePositions.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        this.values = new Object[parameterNames.length];
+        this.bound = new BitSet(parameterNames.length);
+
+        String jdbcSql = NamedParameterUtils.substituteNamedParameters(parsedSql, null);
+        this.connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            this.statement = connection.prepareStatement(jdbcSql);
+            if (fetchSize > 0) {
+                statement.setFetchSize(fetchSize);
+            }
+        } catch (SQLException e) {
+            close();
+            throw exceptionTranslator.translate("PreparedSqlExecutor", sql, e);
+        }
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public boolean hasParameter(String name) {
+        return parameterIndexes.containsKey(name);
+    }
+
+    /**
+     * Binds a value to every occurrence of the named parameter. A
+     * {@link SqlParameterValue} is bound with its SQL type.
+     */
+    public <P> PreparedSqlExecutor setParameter(String name, P value) throws InvalidArgumentException {
+        return setParameter(name, value, SqlTypeValue.TYPE_UNKNOWN, null);
+    }
+
+    /**
+     * Binds a value with the SQL type and type name registered for it, as
+     * found in a {@link org.springframework.jdbc.core.namedparam.SqlParameterSource}.
+     */
+    PreparedSqlExecutor setParameter(String name, Object value, int sqlType, String typeName)
+            throws InvalidArgumentException {
+        Integer index = parameterIndexes.get(name);
+        if (Objects.isNull(index)) {
+            throw new InvalidArgumentException("Unknown parameter: " + name);
+        }
+        if (value instanceof Collection) {
+            throw new InvalidArgumentException("Collection values cannot be bound to a prepared statement");
+        }
+        checkOpen();
+        try {
+            for (int position : positions[index]) {
+                if (value instanceof SqlParameterValue) {
+                    SqlParameterValue typed = (SqlParameterValue) value;
+                    StatementCreatorUtils.setParameterValue(statement, position, typed, typed.getValue());
+                } else {
+                    StatementCreatorUtils.setParameterValue(statement, position, sqlType, typeName, value);
+                }
+            }
+        } catch (SQLException e) {
+            throw exceptionTranslator.translate("PreparedSqlExecutor", sql, e);
+        }
+        values[index] = value;
+        bound.set(index);
+        return this;
+    }
+
+    public int update() throws RequiredValueException {
+        checkBound();
+        long start = provider.startTiming();
+        try {
+            int rows = statement.executeUpdate();
+            provider.recordExecution(SqlOperation.UPDATE, sql, currentParameters(start), start, rows, null);
+            return rows;
+        } catch (SQLException e) {
+            provider.recordExecution(SqlOperation.UPDATE, sql, currentParameters(start), start, 0, e);
+            throw exceptionTranslator.translate("PreparedSqlExecutor", sql, e);
+        } finally {
+            provider.invalidateResultCache(sql);
+        }
+    }
+
+    /**
+     * Queues the bound values for {@link #executeBatch()}.
+     */
+    public PreparedSqlExecutor addBatch() throws RequiredValueException {
+        checkBound();
+        try {
+            statement.addBatch();
+        } catch (SQLException e) {
+            throw exceptionTranslator.translate("PreparedSqlExecutor", sql, e);
+        }
+        return this;
+    }
+
+    public int[] executeBatch() {
+        checkOpen();
+        long start = provider.startTiming();
+        try {
+            int[] counts = statement.executeBatch();
+            provider.recordExecution(SqlOperation.BATCH, sql, null, start, SqlExecutorProvider.updatedRows(counts),
+                    null);
+            return counts;
+        } catch (SQLException e) {
+            provider.recordExecution(SqlOperation.BATCH, sql, null, start, 0, e);
+            throw exceptionTranslator.translate("PreparedSqlExecutor", sql, e);
+        } finally {
+            provider.invalidateResultCache(sql);
+        }
+    }
+
+    public <R> R query(ResultSetExtractor<R> extractor) throws RequiredValueException {
+        checkBound();
+        long start = provider.startTiming();
+        try (ResultSet rs = statement.executeQuery()) {
+            R result = extractor.extractData(rs);
+            provider.recordExecution(SqlOperation.QUERY, sql, currentParameters(start), start,
+                    SqlExecutorProvider.rowCount(result), null);
+            return result;
+        } catch (SQLException e) {
+            provider.recordExecution(SqlOperation.QUERY, sql, currentParameters(start), start, 0, e);
+            throw exceptionTranslator.translate("PreparedSqlExecutor", sql, e);
+        }
+    }
+
+    public <R> List<R> query(RowMapper<R> rowMapper) throws RequiredValueException {
+        return query(new RowMapperResultSetExtractor<>(rowMapper));
+    }
+
+    public <T> T queryForScalar(Class<T> type) throws RequiredValueException {
+        return query(ScalarExtractor.of(type, 1));
+    }
+
+    @Override
+    public void close() {
+        JdbcUtils.closeStatement(statement);
+        statement = null;
+        if (Objects.nonNull(connection)) {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+            connection = null;
+        }
+    }
+
+    private void checkOpen() {
+        if (Objects.isNull(statement)) {
+            throw new IllegalStateException("Prepared executor is closed");
+        }
+    }
+
+    private void checkBound() throws RequiredValueException {
+        checkOpen();
+        if (bound.cardinality() < parameterNames.length) {
+            int missing = bound.nextClearBit(0);
+            throw new RequiredValueException("Parameter " + parameterNames[missing] + " is required for this operation");
+        }
+    }
+
+    private MapSqlParameterSource currentParameters(long start) {
+        if (start == SqlExecutorProvider.NOT_TIMED || parameterNames.length == 0) {
+            return null;
+        }
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        for (int i = 0; i < parameterNames.length; i++) {
+            parameters.addValue(parameterNames[i], values[i]);
+        }
+        return parameters;
+    }
+
+    /**
+     * Answers every parameter with its own name, so that building the value
+     * array yields the parameter name at each placeholder position.
+     */
+    private static class PlaceholderNames extends AbstractSqlParameterSource {
+
+        @Override
+        public boolean hasValue(String paramName) {
+            return true;
+        }
+
+        @Override
+        public Object getValue(String paramName) {
+            return paramName;
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.util.BitSet;
+import java.util.Objects;
+
+/**
+ * Base class for growable, unboxed single column buffers. Null values are
+ * tracked in a bitmap that is only allocated once the first null is added.
+ */
+public abstract class PrimitiveColumn {
+
+    protected static final int DEFAULT_CAPACITY = 64;
+
+    protected int size = 0;
+    private BitSet nulls = null;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isNull(int index) {
+        checkIndex(index);
+        return Objects.nonNull(nulls) && nulls.get(index);
+    }
+
+    public boolean hasNulls() {
+        return Objects.nonNull(nulls) && !nulls.isEmpty();
+    }
+
+    protected void markNull(int index) {
+        if (Objects.isNull(nulls)) {
+            nulls = new BitSet();
+        }
+        nulls.set(index);
+    }
+
+    protected void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    protected static int grow(int capacity) {
+        int newCapacity = capacity + (capacity >> 1) + 1;
+        return newCapacity < 0 ? Integer.MAX_VALUE - 8 : newCapacity;
+    }
+
+}
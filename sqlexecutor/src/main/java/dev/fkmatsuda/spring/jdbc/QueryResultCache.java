@@ -0,0 +1,337 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Size and time bounded cache of read only query results keyed by SQL text
+ * and parameter values. Every entry is tagged with the tables it reads from,
+ * and statements executed through the provider that reference one of those
+ * tables drop the matching entries. Entries also keep the versions of their
+ * tables at the time they were loaded and are discarded on read once any of
+ * them changed, so a load racing with an invalidation is never served.
+ */
+public class QueryResultCache {
+
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Key>> tableKeys = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> tableVersions = new ConcurrentHashMap<>();
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger ordered = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public QueryResultCache(int maxSize, Duration ttl) throws InvalidArgumentException {
+        if (maxSize < 1) {
+            throw new InvalidArgumentException("Cache size must be greater than zero");
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new InvalidArgumentException("Cache TTL must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    @SuppressWarnings("unchecked")
+    <R> R get(String sql, String kind, Map<String, Object> parameters, String[] tables, Supplier<R> loader) {
+        Key key = new Key(sql, kind, parameters);
+        long now = System.nanoTime();
+        Entry entry = entries.get(key);
+        if (Objects.nonNull(entry)) {
+            if (now - entry.expiresAt >= 0) {
+                if (removeEntry(key, entry)) {
+                    evictions.increment();
+                }
+            } else if (isStale(entry)) {
+                if (removeEntry(key, entry)) {
+                    invalidations.increment();
+                }
+            } else {
+                entry.referenced = true;
+                hits.increment();
+                return (R) entry.value;
+            }
+        }
+        misses.increment();
+
+        long[] versions = new long[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            versions[i] = tableVersion(tables[i]).get();
+        }
+        R value = loader.get();
+        Entry loaded = new Entry(key, value, System.nanoTime() + ttlNanos, tables, versions);
+        if (isStale(loaded)) {
+            return value;
+        }
+        // registered before publishing so that an invalidation racing with the
+        // put either finds the key or has already bumped the version seen below
+        for (String table : tables) {
+            tableKeys.computeIfAbsent(table, t -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+        entries.put(key, loaded);
+        if (isStale(loaded)) {
+            removeEntry(key, loaded);
+            return value;
+        }
+        order.add(loaded);
+        ordered.incrementAndGet();
+        evict();
+        return value;
+    }
+
+    private boolean isStale(Entry entry) {
+        for (int i = 0; i < entry.tables.length; i++) {
+            if (tableVersion(entry.tables[i]).get() != entry.versions[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void invalidateTable(String table) {
+        String name = normalizeTable(table);
+        tableVersion(name).incrementAndGet();
+        Set<Key> keys = tableKeys.remove(name);
+        if (Objects.isNull(keys)) {
+            return;
+        }
+        for (Key key : keys) {
+            Entry entry = entries.get(key);
+            if (Objects.nonNull(entry) && removeEntry(key, entry)) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    /**
+     * Invalidates every cached table whose name appears as an identifier in the
+     * given statement.
+     */
+    public void invalidateReferencedTables(String sql) {
+        if (tableVersions.isEmpty()) {
+            return;
+        }
+        for (String identifier : identifiers(sql)) {
+            if (tableVersions.containsKey(identifier)) {
+                invalidateTable(identifier);
+            }
+        }
+    }
+
+    public void clear() {
+        for (String table : tableVersions.keySet()) {
+            tableVersion(table).incrementAndGet();
+        }
+        entries.clear();
+        tableKeys.clear();
+        order.clear();
+        ordered.set(0);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long requests = hitCount + misses.sum();
+        return requests == 0 ? 0.0 : (double) hitCount / requests;
+    }
+
+    static String[] normalizeTables(String[] tables) {
+        String[] names = new String[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            names[i] = normalizeTable(tables[i]);
+        }
+        return names;
+    }
+
+    private static String normalizeTable(String table) {
+        String name = table.trim();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0) {
+            name = name.substring(dot + 1);
+        }
+        if (name.length() > 1 && name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"') {
+            name = name.substring(1, name.length() - 1);
+        }
+        return name.toLowerCase();
+    }
+
+    private AtomicLong tableVersion(String table) {
+        return tableVersions.computeIfAbsent(table, t -> new AtomicLong());
+    }
+
+    private boolean removeEntry(Key key, Entry entry) {
+        if (!entries.remove(key, entry)) {
+            return false;
+        }
+        for (String table : entry.tables) {
+            Set<Key> keys = tableKeys.get(table);
+            if (Objects.nonNull(keys)) {
+                keys.remove(key);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Second chance eviction over the insertion order: the oldest entry goes
+     * unless it was read since it was last looked at, in which case it moves
+     * to the tail. With a single TTL the oldest entries are also the first to
+     * expire, and entries already removed by invalidation are dropped as they
+     * reach the head, so each insertion costs amortized constant time.
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        while (entries.size() > maxSize || ordered.get() > 2 * maxSize) {
+            Entry oldest = order.poll();
+            if (Objects.isNull(oldest)) {
+                return;
+            }
+            if (entries.get(oldest.key) != oldest) {
+                ordered.decrementAndGet();
+            } else if (oldest.referenced && now - oldest.expiresAt < 0) {
+                oldest.referenced = false;
+                order.add(oldest);
+            } else {
+                ordered.decrementAndGet();
+                if (removeEntry(oldest.key, oldest)) {
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    private static List<String> identifiers(String sql) {
+        List<String> identifiers = new ArrayList<>();
+        int i = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            int next = SqlScanner.skipLiteralOrComment(sql, i);
+            if (next != i) {
+                if (c == '"' || c == '`') {
+                    identifiers.add(sql.substring(i + 1, Math.max(i + 1, next - 1)).toLowerCase());
+                }
+                i = next;
+            } else if (c == ':') {
+                i = Math.max(SqlScanner.skipParameter(sql, i), i + 1);
+            } else if (SqlScanner.isIdentifierStart(c)) {
+                next = SqlScanner.skipIdentifier(sql, i);
+                identifiers.add(sql.substring(i, next).toLowerCase());
+                i = next;
+            } else {
+                i++;
+            }
+        }
+        return identifiers;
+    }
+
+    private static final class Key {
+
+        private final String sql;
+        private final String kind;
+        private final Map<String, Object> parameters;
+        private final int hash;
+
+        Key(String sql, String kind, Map<String, Object> parameters) {
+            this.sql = sql;
+            this.kind = kind;
+            this.parameters = parameters;
+            this.hash = Objects.hash(sql, kind, parameters);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && sql.equals(other.sql) && kind.equals(other.kind)
+                    && parameters.equals(other.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    private static final class Entry {
+
+        private final Key key;
+        private final Object value;
+        private final long expiresAt;
+        private final String[] tables;
+        private final long[] versions;
+        private volatile boolean referenced = false;
+
+        Entry(Key key, Object value, long expiresAt, String[] tables, long[] versions) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.tables = tables;
+            this.versions = versions;
+        }
+
+    }
+
+}
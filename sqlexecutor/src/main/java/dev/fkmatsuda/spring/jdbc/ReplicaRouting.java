@@ -0,0 +1,222 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+/**
+ * Sends the queries of a {@link SqlExecutorProvider} to read replicas while
+ * writes, DDL and transactions keep using the primary data source. Replicas are
+ * picked in turn or by fewest connections in use. A read-your-writes window
+ * keeps a thread reading from the primary for a while after it last took a
+ * primary connection, and {@link SqlExecutorProvider.SqlExecutor#readFromPrimary()}
+ * forces it for a single executor.
+ */
+public class ReplicaRouting {
+
+    public enum Strategy {
+        ROUND_ROBIN, LEAST_OUTSTANDING
+    }
+
+    private static final ThreadLocal<Boolean> READ_INTENT = new ThreadLocal<>();
+    private static final long NO_WRITE = Long.MIN_VALUE;
+
+    private final DataSource[] replicas;
+    private final AtomicInteger[] outstanding;
+    private final LongAdder[] replicaReads;
+    private final LongAdder primaryReads = new LongAdder();
+    private final AtomicInteger next = new AtomicInteger();
+    private final ThreadLocal<long[]> lastWrite = ThreadLocal.withInitial(() -> new long[] { NO_WRITE });
+
+    private volatile Strategy strategy = Strategy.ROUND_ROBIN;
+    private volatile long readYourWritesNanos = 0;
+
+    public ReplicaRouting(List<DataSource> replicas) throws InvalidArgumentException {
+        if (replicas.isEmpty()) {
+            throw new InvalidArgumentException("At least one replica is required");
+        }
+        this.replicas = replicas.toArray(new DataSource[0]);
+        this.outstanding = new AtomicInteger[this.replicas.length];
+        this.replicaReads = new LongAdder[this.replicas.length];
+        for (int i = 0; i < this.replicas.length; i++) {
+            outstanding[i] = new AtomicInteger();
+            replicaReads[i] = new LongAdder();
+        }
+    }
+
+    public ReplicaRouting setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+    /**
+     * How long after taking a primary connection a thread keeps reading from
+     * the primary. Zero, the default, disables the window.
+     */
+    public ReplicaRouting setReadYourWritesWindow(Duration window) throws InvalidArgumentException {
+        if (window.isNegative()) {
+            throw new InvalidArgumentException("Read-your-writes window cannot be negative");
+        }
+        this.readYourWritesNanos = window.toNanos();
+        return this;
+    }
+
+    public int getReplicaCount() {
+        return replicas.length;
+    }
+
+    public long getReplicaReads(int replica) {
+        return replicaReads[replica].sum();
+    }
+
+    /**
+     * Reads sent to the primary by the read-your-writes window.
+     */
+    public long getPrimaryReads() {
+        return primaryReads.sum();
+    }
+
+    /**
+     * Connections of the replica currently in use, tracked with the
+     * {@link Strategy#LEAST_OUTSTANDING} strategy only.
+     */
+    public int getOutstanding(int replica) {
+        return outstanding[replica].get();
+    }
+
+    static boolean beginRead() {
+        if (Boolean.TRUE.equals(READ_INTENT.get())) {
+            return false;
+        }
+        READ_INTENT.set(Boolean.TRUE);
+        return true;
+    }
+
+    static void endRead() {
+        READ_INTENT.remove();
+    }
+
+    static boolean isRead() {
+        return Boolean.TRUE.equals(READ_INTENT.get());
+    }
+
+    Connection getReadConnection(DataSource primary) throws SQLException {
+        long window = readYourWritesNanos;
+        if (window > 0) {
+            long last = lastWrite.get()[0];
+            if (last != NO_WRITE && System.nanoTime() - last < window) {
+                primaryReads.increment();
+                return primary.getConnection();
+            }
+        }
+        if (strategy == Strategy.ROUND_ROBIN) {
+            int replica = Math.floorMod(next.getAndIncrement(), replicas.length);
+            replicaReads[replica].increment();
+            return replicas[replica].getConnection();
+        }
+        int replica = leastOutstanding();
+        replicaReads[replica].increment();
+        outstanding[replica].incrementAndGet();
+        try {
+            return tracked(replicas[replica].getConnection(), outstanding[replica]);
+        } catch (SQLException | RuntimeException e) {
+            outstanding[replica].decrementAndGet();
+            throw e;
+        }
+    }
+
+    Connection getWriteConnection(DataSource primary) throws SQLException {
+        if (readYourWritesNanos > 0) {
+            lastWrite.get()[0] = System.nanoTime();
+        }
+        return primary.getConnection();
+    }
+
+    private int leastOutstanding() {
+        int offset = Math.floorMod(next.getAndIncrement(), replicas.length);
+        int best = offset;
+        int bestCount = outstanding[offset].get();
+        for (int i = 1; i < replicas.length && bestCount > 0; i++) {
+            int candidate = (offset + i) % replicas.length;
+            int count = outstanding[candidate].get();
+            if (count < bestCount) {
+                best = candidate;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Wraps the connection to notice its close, including through the
+     * {@code getConnection()} of its statements, which JdbcTemplate streams use
+     * to release it.
+     */
+    private static Connection tracked(Connection connection, AtomicInteger counter) {
+        AtomicBoolean closed = new AtomicBoolean();
+        Connection[] tracked = new Connection[1];
+        tracked[0] = (Connection) Proxy.newProxyInstance(ReplicaRouting.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && method.getParameterCount() == 0
+                            && closed.compareAndSet(false, true)) {
+                        counter.decrementAndGet();
+                    }
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof Statement && method.getReturnType().isInterface()) {
+                        return statement(result, method.getReturnType(), tracked[0]);
+                    }
+                    return result;
+                });
+        return tracked[0];
+    }
+
+    private static Object statement(Object statement, Class<?> type, Connection connection) {
+        return Proxy.newProxyInstance(ReplicaRouting.class.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    if ("getConnection".equals(method.getName()) && method.getParameterCount() == 0) {
+                        return connection;
+                    }
+                    return invoke(statement, method, args);
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Base64;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+/**
+ * Writes every row of a result set as CSV or newline delimited JSON, escaping
+ * values straight into one reused char buffer. Column names and kinds are
+ * resolved once from the metadata; I/O errors surface as
+ * {@link UncheckedIOException}.
+ */
+class ResultSetExporter implements ResultSetExtractor<Long> {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private enum Kind {
+        NUMBER, BOOLEAN, BINARY, TEXT
+    }
+
+    private final Writer writer;
+    private final DataFormat format;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int length = 0;
+
+    ResultSetExporter(Writer writer, DataFormat format) {
+        this.writer = writer;
+        this.format = format;
+    }
+
+    @Override
+    public Long extractData(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        String[] names = new String[columnCount];
+        Kind[] kinds = new Kind[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = metaData.getColumnLabel(i + 1);
+            kinds[i] = kind(metaData.getColumnType(i + 1));
+        }
+        try {
+            if (format == DataFormat.CSV) {
+                for (int i = 0; i < columnCount; i++) {
+                    if (i > 0) {
+                        append(',');
+                    }
+                    appendCsv(names[i]);
+                }
+                append('\n');
+            }
+            long rows = 0;
+            while (rs.next()) {
+                if (format == DataFormat.CSV) {
+                    writeCsvRow(rs, kinds);
+                } else {
+                    writeJsonRow(rs, names, kinds);
+                }
+                rows++;
+            }
+            flush();
+            return rows;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeCsvRow(ResultSet rs, Kind[] kinds) throws SQLException, IOException {
+        for (int i = 0; i < kinds.length; i++) {
+            if (i > 0) {
+                append(',');
+            }
+            if (kinds[i] == Kind.BINARY) {
+                byte[] bytes = rs.getBytes(i + 1);
+                if (bytes != null) {
+                    append(Base64.getEncoder().encodeToString(bytes));
+                }
+                continue;
+            }
+            String value = rs.getString(i + 1);
+            if (value != null) {
+                appendCsv(value);
+            }
+        }
+        append('\n');
+    }
+
+    private void writeJsonRow(ResultSet rs, String[] names, Kind[] kinds) throws SQLException, IOException {
+        append('{');
+        for (int i = 0; i < kinds.length; i++) {
+            if (i > 0) {
+                append(',');
+            }
+            appendJson(names[i]);
+            append(':');
+            if (kinds[i] == Kind.BINARY) {
+                byte[] bytes = rs.getBytes(i + 1);
+                if (bytes == null) {
+                    append("null");
+                } else {
+                    append('"');
+                    append(Base64.getEncoder().encodeToString(bytes));
+                    append('"');
+                }
+                continue;
+            }
+            String value = rs.getString(i + 1);
+            if (value == null) {
+                append("null");
+            } else if (kinds[i] == Kind.BOOLEAN) {
+                append(rs.getBoolean(i + 1) ? "true" : "false");
+            } else if (kinds[i] == Kind.NUMBER && isJsonNumber(value)) {
+                append(value);
+            } else {
+                appendJson(value);
+            }
+        }
+        append('}');
+        append('\n');
+    }
+
+    private void appendCsv(String value) throws IOException {
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            append(value);
+            return;
+        }
+        append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                append('"');
+            }
+            append(c);
+        }
+        append('"');
+    }
+
+    private void appendJson(String value) throws IOException {
+        append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                append('\\');
+                append('"');
+                break;
+            case '\\':
+                append('\\');
+                append('\\');
+                break;
+            case '\n':
+                append('\\');
+                append('n');
+                break;
+            case '\r':
+                append('\\');
+                append('r');
+                break;
+            case '\t':
+                append('\\');
+                append('t');
+                break;
+            default:
+                if (c < 0x20) {
+                    append("\\u00");
+                    append(HEX[c >> 4]);
+                    append(HEX[c & 0xF]);
+                } else {
+                    append(c);
+                }
+            }
+        }
+        append('"');
+    }
+
+    /**
+     * Whether the value follows the JSON number grammar, which leaves out
+     * {@code NaN} and the infinities as well as forms such as {@code .5}.
+     */
+    static boolean isJsonNumber(String value) {
+        int i = value.startsWith("-") ? 1 : 0;
+        int digits = skipDigits(value, i);
+        if (digits == i || (value.charAt(i) == '0' && digits > i + 1)) {
+            return false;
+        }
+        i = digits;
+        if (i < value.length() && value.charAt(i) == '.') {
+            digits = skipDigits(value, i + 1);
+            if (digits == i + 1) {
+                return false;
+            }
+            i = digits;
+        }
+        if (i < value.length() && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            i++;
+            if (i < value.length() && (value.charAt(i) == '+' || value.charAt(i) == '-')) {
+                i++;
+            }
+            digits = skipDigits(value, i);
+            if (digits == i) {
+                return false;
+            }
+            i = digits;
+        }
+        return i == value.length();
+    }
+
+    private static int skipDigits(String value, int from) {
+        int i = from;
+        while (i < value.length() && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    private static Kind kind(int sqlType) {
+        switch (sqlType) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+            return Kind.NUMBER;
+        case Types.BIT:
+        case Types.BOOLEAN:
+            return Kind.BOOLEAN;
+        case Types.BINARY:
+        case Types.VARBINARY:
+        case Types.LONGVARBINARY:
+        case Types.BLOB:
+            return Kind.BINARY;
+        default:
+            return Kind.TEXT;
+        }
+    }
+
+    private void append(char c) throws IOException {
+        if (length == buffer.length) {
+            flush();
+        }
+        buffer[length++] = c;
+    }
+
+    private void append(String value) throws IOException {
+        int offset = 0;
+        while (offset < value.length()) {
+            if (length == buffer.length) {
+                flush();
+            }
+            int count = Math.min(buffer.length - length, value.length() - offset);
+            value.getChars(offset, offset + count, buffer, length);
+            length += count;
+            offset += count;
+        }
+    }
+
+    private void flush() throws IOException {
+        writer.write(buffer, 0, length);
+        length = 0;
+    }
+
+}
@@ -22,109 +22,174 @@
 package dev.fkmatsuda.spring.jdbc;
 
 import java.math.BigDecimal;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 
-import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 
 public class ResultSetExtractorFactory {
-    private ResultSetExtractorFactory() {}
 
-    public static ResultSetExtractor<String> stringExtractor() {
+    private static final ResultSetExtractor<String> STRING_EXTRACTOR = ScalarExtractor.of(String.class, 1);
+
+    private static final ResultSetExtractor<Long> LONG_EXTRACTOR = ScalarExtractor.of(Long.class, 1);
+
+    private static final ResultSetExtractor<Integer> INTEGER_EXTRACTOR = ScalarExtractor.of(Integer.class, 1);
+
+    private static final ResultSetExtractor<BigDecimal> BIG_DECIMAL_EXTRACTOR = ScalarExtractor.of(BigDecimal.class,
+            1);
 
-        return new ResultSetExtractor<String>() {
-            @Override
-            public String extractData(ResultSet rs) throws SQLException, DataAccessException {
-                if (rs.next()) {
-                    return rs.getString(1);
-                }
-                return null;
+    private static final ResultSetExtractor<Boolean> BOOLEAN_EXTRACTOR = rs -> rs.next() && rs.getBoolean(1);
+
+    private static final RowMapper<Long> LONG_LIST_MAPPER = (rs, rowNum) -> {
+        long value = rs.getLong(1);
+        if (rs.wasNull()) {
+            return null;
+        }
+        return value;
+    };
+
+    private static final ResultSetExtractor<LongColumn> LONG_COLUMN_EXTRACTOR = rs -> {
+        LongColumn column = new LongColumn();
+        while (rs.next()) {
+            long value = rs.getLong(1);
+            if (rs.wasNull()) {
+                column.addNull();
+            } else {
+                column.add(value);
+            }
+        }
+        return column;
+    };
+
+    private static final ResultSetExtractor<IntColumn> INT_COLUMN_EXTRACTOR = rs -> {
+        IntColumn column = new IntColumn();
+        while (rs.next()) {
+            int value = rs.getInt(1);
+            if (rs.wasNull()) {
+                column.addNull();
+            } else {
+                column.add(value);
             }
-        };
+        }
+        return column;
+    };
+
+    private static final ResultSetExtractor<DoubleColumn> DOUBLE_COLUMN_EXTRACTOR = rs -> {
+        DoubleColumn column = new DoubleColumn();
+        while (rs.next()) {
+            double value = rs.getDouble(1);
+            if (rs.wasNull()) {
+                column.addNull();
+            } else {
+                column.add(value);
+            }
+        }
+        return column;
+    };
+
+    private static final ResultSetExtractor<long[]> LONG_ARRAY_EXTRACTOR = rs -> {
+        LongColumn column = new LongColumn();
+        while (rs.next()) {
+            column.add(rs.getLong(1));
+        }
+        return column.toArray();
+    };
+
+    private static final ResultSetExtractor<int[]> INT_ARRAY_EXTRACTOR = rs -> {
+        IntColumn column = new IntColumn();
+        while (rs.next()) {
+            column.add(rs.getInt(1));
+        }
+        return column.toArray();
+    };
+
+    private static final ResultSetExtractor<double[]> DOUBLE_ARRAY_EXTRACTOR = rs -> {
+        DoubleColumn column = new DoubleColumn();
+        while (rs.next()) {
+            column.add(rs.getDouble(1));
+        }
+        return column.toArray();
+    };
 
+    private ResultSetExtractorFactory() {}
+
+    public static ResultSetExtractor<String> stringExtractor() {
+        return STRING_EXTRACTOR;
     }
 
     public static RowMapper<Long> longListMapper() {
-        return new RowMapper<Long>() {
-            @Override
-            public Long mapRow(ResultSet rs, int rowNum) throws SQLException {
-                long value = rs.getLong(1);
-                if (rs.wasNull()) {
-                    return null;
-                }
-                return value;
-            }
-        };
+        return LONG_LIST_MAPPER;
     }
 
-	public static ResultSetExtractor<Long> longExtractor() {
-        return new ResultSetExtractor<Long>() {
-            @Override
-            public Long extractData(ResultSet rs) throws SQLException, DataAccessException {
-                if (rs.next()) {
-                	long value = rs.getLong(1);
-                	if (rs.wasNull()) {
-                		return null;
-                	}
-                    return value;
-                }
-                return null;
-            }
-        };
-	}
-
-	public static ResultSetExtractor<BigDecimal> bigDecimalExtractor() {
-		return new ResultSetExtractor<BigDecimal>() {
-
-			@Override
-			public BigDecimal extractData(ResultSet rs) throws SQLException, DataAccessException {
-				if (rs.next()) {
-                	BigDecimal value = rs.getBigDecimal(1);
-                	if (rs.wasNull()) {
-                		return null;
-                	}
-                    return value;
-                }
-				return null;
-			}
-			
-		};
-	}
-
-	public static ResultSetExtractor<Boolean> booleanExtractor() {
-		return new ResultSetExtractor<Boolean>() {
-
-			@Override
-			public Boolean extractData(ResultSet rs) throws SQLException, DataAccessException {
-				if (rs.next()) {
-                	Boolean value = rs.getBoolean(1);
-                	if (rs.wasNull()) {
-                		return false;
-                	}
-                    return value;
-                }
-				return false;
-			}
-			
-		};
-	}
-
-	public static ResultSetExtractor<Integer> integerExtractor() {
-        return new ResultSetExtractor<Integer>() {
-            @Override
-            public Integer extractData(ResultSet rs) throws SQLException, DataAccessException {
-                if (rs.next()) {
-                	int value = rs.getInt(1);
-                	if (rs.wasNull()) {
-                		return null;
-                	}
-                    return value;
-                }
-                return null;
-            }
-        };
-	}
+    public static ResultSetExtractor<Long> longExtractor() {
+        return LONG_EXTRACTOR;
+    }
+
+    public static ResultSetExtractor<BigDecimal> bigDecimalExtractor() {
+        return BIG_DECIMAL_EXTRACTOR;
+    }
+
+    /**
+     * Reads the first column of the first row, returning false when the value
+     * is null or there are no rows.
+     */
+    public static ResultSetExtractor<Boolean> booleanExtractor() {
+        return BOOLEAN_EXTRACTOR;
+    }
+
+    public static ResultSetExtractor<Integer> integerExtractor() {
+        return INTEGER_EXTRACTOR;
+    }
+
+    /**
+     * Returns the shared extractor reading the first column of the first row
+     * as the given type, or null when there are no rows. Supported types are
+     * the primitives and their wrappers, String, BigDecimal, BigInteger, byte[],
+     * the java.sql and java.time date types, Instant, UUID and enums (by
+     * name); any other type is read through {@code ResultSet.getObject(int,
+     * Class)}. Primitive types read SQL NULL as the JDBC default value.
+     */
+    public static <T> ResultSetExtractor<T> scalarExtractor(Class<T> type) {
+        return ScalarExtractor.of(type, 1);
+    }
+
+    /**
+     * Same as {@link #scalarExtractor(Class)} for the given column, starting
+     * at 1.
+     */
+    public static <T> ResultSetExtractor<T> scalarExtractor(Class<T> type, int column)
+            throws InvalidArgumentException {
+        if (column < 1) {
+            throw new InvalidArgumentException("Column index must be greater than zero");
+        }
+        return ScalarExtractor.of(type, column);
+    }
+
+    public static ResultSetExtractor<LongColumn> longColumnExtractor() {
+        return LONG_COLUMN_EXTRACTOR;
+    }
+
+    public static ResultSetExtractor<IntColumn> intColumnExtractor() {
+        return INT_COLUMN_EXTRACTOR;
+    }
+
+    public static ResultSetExtractor<DoubleColumn> doubleColumnExtractor() {
+        return DOUBLE_COLUMN_EXTRACTOR;
+    }
+
+    /**
+     * Reads the first column of every row into a {@code long[]}. Null values are
+     * read as zero, use {@link #longColumnExtractor()} when nulls matter.
+     */
+    public static ResultSetExtractor<long[]> longArrayExtractor() {
+        return LONG_ARRAY_EXTRACTOR;
+    }
+
+    public static ResultSetExtractor<int[]> intArrayExtractor() {
+        return INT_ARRAY_EXTRACTOR;
+    }
+
+    public static ResultSetExtractor<double[]> doubleArrayExtractor() {
+        return DOUBLE_ARRAY_EXTRACTOR;
+    }
 
 }
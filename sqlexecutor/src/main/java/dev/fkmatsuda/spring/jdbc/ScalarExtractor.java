@@ -0,0 +1,81 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+/**
+ * Reads one column of the first row, or returns {@code null} when there is no
+ * row. Instances are stateless and shared per type and column.
+ */
+class ScalarExtractor<T> implements ResultSetExtractor<T> {
+
+    static final int SHARED_COLUMNS = 16;
+
+    private static final ClassValue<ScalarExtractor<?>[]> SHARED = new ClassValue<>() {
+        @Override
+        protected ScalarExtractor<?>[] computeValue(Class<?> type) {
+            ScalarExtractor<?>[] extractors = new ScalarExtractor<?>[SHARED_COLUMNS];
+            for (int i = 0; i < SHARED_COLUMNS; i++) {
+                extractors[i] = new ScalarExtractor<>(type, i + 1);
+            }
+            return extractors;
+        }
+    };
+
+    private final ColumnReader<T> reader;
+    private final int column;
+    private final String kind;
+
+    private ScalarExtractor(Class<T> type, int column) {
+        this.reader = ColumnReaders.forType(type);
+        this.column = column;
+        this.kind = type.getName() + "#" + column;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> ScalarExtractor<T> of(Class<T> type, int column) {
+        if (column <= SHARED_COLUMNS) {
+            return (ScalarExtractor<T>) SHARED.get(type)[column - 1];
+        }
+        return new ScalarExtractor<>(type, column);
+    }
+
+    /**
+     * Key telling results of this extractor apart in the result cache.
+     */
+    String getKind() {
+        return kind;
+    }
+
+    @Override
+    public T extractData(ResultSet rs) throws SQLException {
+        if (rs.next()) {
+            return reader.read(rs, column);
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.util.Objects;
+
+/**
+ * Result of a single pass scan over a query that locates its top level
+ * clauses, ignoring anything inside literals, comments and parentheses. It
+ * derives the count query and the query body without ordering and limits.
+ */
+final class SelectStatement {
+
+    private final String sql;
+    private final String bodySql;
+    private final String unlimitedSql;
+    private final String countSql;
+    private final boolean limited;
+
+    private SelectStatement(String sql, String bodySql, String unlimitedSql, String countSql) {
+        this.sql = sql;
+        this.bodySql = bodySql;
+        this.unlimitedSql = unlimitedSql;
+        this.countSql = countSql;
+        this.limited = unlimitedSql.length() != sql.length();
+    }
+
+    static SelectStatement parse(String source) {
+        String sql = trimStatement(source);
+
+        int firstKeyword = -1;
+        int select = -1;
+        int selectEnd = -1;
+        int from = -1;
+        int setOperation = -1;
+        int tail = -1;
+        int limit = -1;
+        boolean distinct = false;
+        boolean grouped = false;
+        boolean complexSelectList = false;
+
+        int depth = 0;
+        int i = 0;
+        int length = sql.length();
+        while (i < length) {
+            int next = SqlScanner.skipLiteralOrComment(sql, i);
+            if (next == i) {
+                next = SqlScanner.skipParameter(sql, i);
+            }
+            if (next != i) {
+                i = next;
+                continue;
+            }
+            char c = sql.charAt(i);
+            if (c == '(') {
+                if (depth == 0 && selectEnd >= 0 && from < 0) {
+                    complexSelectList = true;
+                }
+                depth++;
+                i++;
+                continue;
+            }
+            if (c == ')') {
+                depth--;
+                i++;
+                continue;
+            }
+            if (!SqlScanner.isIdentifierStart(c)) {
+                i = Character.isDigit(c) ? SqlScanner.skipIdentifier(sql, i) : i + 1;
+                continue;
+            }
+            int end = SqlScanner.skipIdentifier(sql, i);
+            if (depth == 0) {
+                String word = sql.substring(i, end).toLowerCase();
+                if (firstKeyword < 0) {
+                    firstKeyword = i;
+                    if (!"select".equals(word) && !"with".equals(word)) {
+                        return new SelectStatement(sql, sql, sql, null);
+                    }
+                }
+                switch (word) {
+                case "select":
+                    if (select < 0) {
+                        select = i;
+                        selectEnd = end;
+                        distinct = SqlScanner.regionMatches(sql, SqlScanner.skipWhitespaceAndComments(sql, end), "distinct");
+                    }
+                    break;
+                case "from":
+                    if (select >= 0 && from < 0) {
+                        from = i;
+                    }
+                    break;
+                case "group":
+                case "having":
+                    grouped = true;
+                    break;
+                case "union":
+                case "intersect":
+                case "except":
+                case "minus":
+                    setOperation = i;
+                    tail = -1;
+                    limit = -1;
+                    break;
+                case "order":
+                    if (from >= 0 && tail < 0 && SqlScanner.regionMatches(sql, SqlScanner.skipWhitespaceAndComments(sql, end), "by")) {
+                        tail = i;
+                    }
+                    break;
+                case "limit":
+                case "offset":
+                case "fetch":
+                    if (from >= 0 && limit < 0) {
+                        limit = i;
+                        if (tail < 0) {
+                            tail = i;
+                        }
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+            i = end;
+        }
+
+        String bodySql = tail >= 0 ? sql.substring(0, tail).trim() : sql;
+        String unlimitedSql = limit >= 0 ? sql.substring(0, limit).trim() : sql;
+        if (select < 0 || from < 0) {
+            return new SelectStatement(sql, bodySql, unlimitedSql, null);
+        }
+        String countSql;
+        if (distinct || grouped || complexSelectList || setOperation >= 0) {
+            countSql = sql.substring(0, select) + "select count(*) from ("
+                    + bodySql.substring(select) + ") count_q";
+        } else {
+            countSql = sql.substring(0, selectEnd) + " count(*) " + bodySql.substring(from);
+        }
+        return new SelectStatement(sql, bodySql, unlimitedSql, countSql);
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    /**
+     * Query without its top level ORDER BY, LIMIT, OFFSET and FETCH clauses.
+     */
+    String getBodySql() {
+        return bodySql;
+    }
+
+    /**
+     * Query keeping its ordering but without LIMIT, OFFSET and FETCH clauses.
+     */
+    String getUnlimitedSql() {
+        return unlimitedSql;
+    }
+
+    /**
+     * Query counting every row of the statement regardless of its limits, or
+     * {@code null} when the statement is not a query.
+     */
+    String getCountSql() {
+        return countSql;
+    }
+
+    /**
+     * Whether the query has a top level LIMIT, OFFSET or FETCH clause.
+     */
+    boolean isLimited() {
+        return limited;
+    }
+
+    boolean isCountable() {
+        return Objects.nonNull(countSql);
+    }
+
+    private static String trimStatement(String source) {
+        String sql = source.trim();
+        while (sql.endsWith(";")) {
+            sql = sql.substring(0, sql.length() - 1).trim();
+        }
+        return sql;
+    }
+
+}
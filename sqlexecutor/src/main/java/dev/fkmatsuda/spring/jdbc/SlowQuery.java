@@ -0,0 +1,129 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class SlowQuery {
+
+    private final long sequence;
+    private final Instant timestamp;
+    private final SqlOperation operation;
+    private final String sql;
+    private final Map<String, Object> parameters;
+    private final long durationNanos;
+    private final long rows;
+    private final String error;
+    private final StackTraceElement origin;
+    private final boolean sampled;
+
+    SlowQuery(long sequence, Instant timestamp, SqlOperation operation, String sql, Map<String, Object> parameters,
+            long durationNanos, long rows, String error, StackTraceElement origin, boolean sampled) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.operation = operation;
+        this.sql = sql;
+        this.parameters = parameters;
+        this.durationNanos = durationNanos;
+        this.rows = rows;
+        this.error = error;
+        this.origin = origin;
+        this.sampled = sampled;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public SqlOperation getOperation() {
+        return operation;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public Map<String, Object> getParameters() {
+        return parameters;
+    }
+
+    public long getDuration(TimeUnit unit) {
+        return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Message of the error raised by the execution, or null when it succeeded.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * First caller frame outside this library and Spring, or null when stack
+     * capture is disabled.
+     */
+    public StackTraceElement getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Whether the entry was recorded by sampling rather than for exceeding the
+     * threshold.
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder()
+                .append(timestamp).append(' ')
+                .append(operation).append(' ')
+                .append(TimeUnit.NANOSECONDS.toMicros(durationNanos)).append("us ")
+                .append(rows).append(" rows");
+        if (sampled) {
+            text.append(" (sampled)");
+        }
+        if (error != null) {
+            text.append(" error: ").append(error);
+        }
+        if (origin != null) {
+            text.append(" at ").append(origin);
+        }
+        text.append(System.lineSeparator()).append("  ").append(sql.trim());
+        if (!parameters.isEmpty()) {
+            text.append(System.lineSeparator()).append("  parameters: ").append(parameters);
+        }
+        return text.toString();
+    }
+
+}
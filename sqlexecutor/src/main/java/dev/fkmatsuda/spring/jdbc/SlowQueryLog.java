@@ -0,0 +1,174 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.io.IOException;
+import java.security.CodeSource;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+/**
+ * Keeps the most recent executions slower than a threshold in a bounded, lock
+ * free ring buffer, along with their bound parameters and calling code. A
+ * sample rate can also capture a fraction of faster executions, which helps
+ * spotting statements run once per row in a loop.
+ */
+public class SlowQueryLog {
+
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance(
+            StackWalker.Option.RETAIN_CLASS_REFERENCE);
+    private static final CodeSource LIBRARY = SlowQueryLog.class.getProtectionDomain().getCodeSource();
+
+    private final AtomicReferenceArray<SlowQuery> entries;
+    private final AtomicLong sequence = new AtomicLong();
+    private final long thresholdNanos;
+
+    private volatile double sampleRate = 0.0;
+    private volatile ParameterRedactor redactor = ParameterRedactor.NONE;
+    private volatile boolean captureOrigin = true;
+
+    public SlowQueryLog(int capacity, Duration threshold) throws InvalidArgumentException {
+        if (capacity < 1) {
+            throw new InvalidArgumentException("Capacity must be greater than zero");
+        }
+        if (threshold.isNegative()) {
+            throw new InvalidArgumentException("Threshold cannot be negative");
+        }
+        this.entries = new AtomicReferenceArray<>(capacity);
+        this.thresholdNanos = threshold.toNanos();
+    }
+
+    public SlowQueryLog setSampleRate(double sampleRate) throws InvalidArgumentException {
+        if (sampleRate < 0.0 || sampleRate > 1.0) {
+            throw new InvalidArgumentException("Sample rate must be between 0 and 1");
+        }
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    public SlowQueryLog setParameterRedactor(ParameterRedactor redactor) {
+        this.redactor = Objects.nonNull(redactor) ? redactor : ParameterRedactor.NONE;
+        return this;
+    }
+
+    public SlowQueryLog setCaptureOrigin(boolean captureOrigin) {
+        this.captureOrigin = captureOrigin;
+        return this;
+    }
+
+    boolean shouldRecord(long durationNanos) {
+        if (durationNanos >= thresholdNanos) {
+            return true;
+        }
+        double rate = sampleRate;
+        return rate > 0.0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    void record(SqlOperation operation, String sql, SqlParameterSource parameters, long durationNanos, long rows,
+            Throwable error) {
+        long next = sequence.getAndIncrement();
+        SlowQuery entry = new SlowQuery(next, Instant.now(), operation, sql, redact(parameters), durationNanos, rows,
+                Objects.nonNull(error) ? String.valueOf(error.getMessage()) : null,
+                captureOrigin ? origin() : null, durationNanos < thresholdNanos);
+        entries.set((int) (next % entries.length()), entry);
+    }
+
+    /**
+     * Entries currently held by the buffer, oldest first.
+     */
+    public List<SlowQuery> snapshot() {
+        long end = sequence.get();
+        long begin = Math.max(0, end - entries.length());
+        List<SlowQuery> snapshot = new ArrayList<>((int) (end - begin));
+        for (long i = begin; i < end; i++) {
+            SlowQuery entry = entries.get((int) (i % entries.length()));
+            if (Objects.nonNull(entry) && entry.getSequence() >= begin) {
+                snapshot.add(entry);
+            }
+        }
+        snapshot.sort((a, b) -> Long.compare(a.getSequence(), b.getSequence()));
+        return snapshot;
+    }
+
+    public void dump(Appendable out) throws IOException {
+        for (SlowQuery entry : snapshot()) {
+            out.append(entry.toString()).append(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Total number of entries recorded, including those already overwritten.
+     */
+    public long getRecordedCount() {
+        return sequence.get();
+    }
+
+    public void clear() {
+        for (int i = 0; i < entries.length(); i++) {
+            entries.set(i, null);
+        }
+    }
+
+    private Map<String, Object> redact(SqlParameterSource parameters) {
+        String[] names = Objects.nonNull(parameters) ? parameters.getParameterNames() : null;
+        if (Objects.isNull(names) || names.length == 0) {
+            return Collections.emptyMap();
+        }
+        ParameterRedactor current = this.redactor;
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (String name : names) {
+            values.put(name, current.redact(name, parameters.getValue(name)));
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    private static StackTraceElement origin() {
+        Optional<StackWalker.StackFrame> frame = STACK_WALKER.walk(frames -> frames
+                .filter(f -> !isInfrastructure(f.getDeclaringClass()))
+                .findFirst());
+        return frame.map(StackWalker.StackFrame::toStackTraceElement).orElse(null);
+    }
+
+    private static boolean isInfrastructure(Class<?> type) {
+        String name = type.getName();
+        if (name.startsWith("java.") || name.startsWith("jdk.") || name.startsWith("sun.")
+                || name.startsWith("org.springframework.")) {
+            return true;
+        }
+        CodeSource source = type.getProtectionDomain().getCodeSource();
+        return Objects.nonNull(LIBRARY) && Objects.nonNull(source) && Objects.equals(LIBRARY.getLocation(),
+                source.getLocation());
+    }
+
+}
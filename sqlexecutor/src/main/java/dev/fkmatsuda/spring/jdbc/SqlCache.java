@@ -0,0 +1,70 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.springframework.util.ConcurrentLruCache;
+
+/**
+ * Bounded, thread safe cache keyed by SQL text that keeps hit and miss counters.
+ */
+public class SqlCache<V> {
+
+    private final ConcurrentLruCache<String, V> cache;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SqlCache(int sizeLimit, Function<String, V> loader) {
+        this.cache = new ConcurrentLruCache<>(sizeLimit, sql -> {
+            misses.increment();
+            return loader.apply(sql);
+        });
+    }
+
+    public V get(String sql) {
+        requests.increment();
+        return cache.get(sql);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public int getSizeLimit() {
+        return cache.sizeLimit();
+    }
+
+    public long getHitCount() {
+        return requests.sum() - misses.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import lombok.extern.apachecommons.CommonsLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.util.StreamUtils;
+
+import dev.fkmatsuda.spring.jdbc.SqlExecutorProvider.SqlExecutor;
+
+/**
+ * Named queries kept in memory, loaded from the {@code .sql} files under a
+ * classpath or file system location such as {@code classpath:sql} or
+ * {@code file:/etc/app/sql}. Each file is named after its path below the
+ * location with dots for separators and without the suffix, so
+ * {@code sql/orders/byCustomer.sql} serves {@code orders.byCustomer}. Files are
+ * read in parallel and their named parameters and count rewrites parsed into
+ * the provider caches up front. {@link #watch()} reloads the catalog whenever
+ * a file of a file system location changes, meant for development, logging
+ * the files that fail to reload.
+ */
+@CommonsLog
+public class SqlCatalog implements AutoCloseable {
+
+    public static final String SQL_SUFFIX = ".sql";
+
+    private static final long RELOAD_DELAY_MILLIS = 100;
+
+    private final SqlExecutorProvider provider;
+    private final String location;
+    private final ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+
+    private volatile Charset charset = StandardCharsets.UTF_8;
+    private volatile Map<String, String> queries = Collections.emptyMap();
+    private WatchService watchService = null;
+    private Thread watcher = null;
+
+    public SqlCatalog(SqlExecutorProvider provider, String location) {
+        this.provider = provider;
+        this.location = location.endsWith("/") ? location : location + "/";
+    }
+
+    public SqlCatalog setCharset(Charset charset) {
+        this.charset = charset;
+        return this;
+    }
+
+    /**
+     * Scans the location and replaces the queries of this catalog with the
+     * files found. A catalog that fails to load keeps its previous queries.
+     */
+    public SqlCatalog load() throws IOException, InvalidArgumentException {
+        Resource[] roots = resolver.getResources(location);
+        List<NamedResource> files = new ArrayList<>();
+        for (Resource file : resolver.getResources(location + "**/*" + SQL_SUFFIX)) {
+            files.add(new NamedResource(name(roots, file), file));
+        }
+        Map<String, String> loaded;
+        try {
+            loaded = files.parallelStream().collect(Collectors.toConcurrentMap(file -> file.name, this::read));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (IllegalStateException e) {
+            throw new InvalidArgumentException(e.getMessage());
+        }
+        loaded.values().parallelStream().forEach(sql -> {
+            provider.getParsedSqlCache().get(sql);
+            provider.selectStatement(sql);
+        });
+        this.queries = Collections.unmodifiableMap(loaded);
+        return this;
+    }
+
+    private static String name(Resource[] roots, Resource file) throws IOException {
+        String url = file.getURL().toString();
+        for (Resource root : roots) {
+            String rootUrl = root.getURL().toString();
+            if (url.startsWith(rootUrl)) {
+                String path = url.substring(rootUrl.length() + (rootUrl.endsWith("/") ? 0 : 1));
+                return path.substring(0, path.length() - SQL_SUFFIX.length()).replace('/', '.');
+            }
+        }
+        throw new IOException("SQL file outside the catalog location: " + url);
+    }
+
+    private String read(NamedResource file) {
+        try (InputStream in = file.resource.getInputStream()) {
+            return StreamUtils.copyToString(in, charset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public boolean contains(String name) {
+        return queries.containsKey(name);
+    }
+
+    public Set<String> getNames() {
+        return queries.keySet();
+    }
+
+    public int size() {
+        return queries.size();
+    }
+
+    public String getSql(String name) throws InvalidArgumentException {
+        String sql = queries.get(name);
+        if (Objects.isNull(sql)) {
+            throw new InvalidArgumentException(String.format("Unknown named query: %s", name));
+        }
+        return sql;
+    }
+
+    public SqlExecutor forNamedQuery(String name) throws InvalidArgumentException {
+        return provider.forSql(getSql(name));
+    }
+
+    /**
+     * Reloads the catalog in a background thread whenever a {@code .sql} file
+     * below the location changes, until {@link #close()}. Only file system
+     * locations, including exploded classpath directories, can be watched.
+     */
+    public synchronized SqlCatalog watch() throws IOException, InvalidArgumentException {
+        if (Objects.nonNull(watchService)) {
+            return this;
+        }
+        List<Path> directories = new ArrayList<>();
+        for (Resource root : resolver.getResources(location)) {
+            if (!root.isFile()) {
+                throw new InvalidArgumentException(
+                        String.format("Cannot watch SQL catalog location outside the file system: %s", root));
+            }
+            try (Stream<Path> tree = Files.walk(root.getFile().toPath())) {
+                tree.filter(Files::isDirectory).forEach(directories::add);
+            }
+        }
+        WatchService service = FileSystems.getDefault().newWatchService();
+        for (Path directory : directories) {
+            register(service, directory);
+        }
+        Thread thread = new Thread(() -> watchChanges(service), "sql-catalog-watcher");
+        thread.setDaemon(true);
+        this.watchService = service;
+        this.watcher = thread;
+        thread.start();
+        return this;
+    }
+
+    private static void register(WatchService service, Path directory) throws IOException {
+        directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    private void watchChanges(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                // editors write a file in several steps, reload once they settle
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            watchCreated(service, ((Path) key.watchable()).resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                    key = service.poll(RELOAD_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                } while (Objects.nonNull(key));
+                try {
+                    load();
+                } catch (IOException | InvalidArgumentException | RuntimeException e) {
+                    // keep serving the previous queries until the files load again
+                    log.warn(String.format("Failed to reload SQL catalog %s", location), e);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void watchCreated(WatchService service, Path created) {
+        if (!Files.isDirectory(created)) {
+            return;
+        }
+        try (Stream<Path> tree = Files.walk(created)) {
+            for (Path directory : tree.filter(Files::isDirectory).collect(Collectors.toList())) {
+                register(service, directory);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn(String.format("Failed to watch SQL catalog directory %s", created), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (Objects.nonNull(watchService)) {
+            watcher.interrupt();
+            watchService.close();
+            watchService = null;
+            watcher = null;
+        }
+    }
+
+    private static final class NamedResource {
+
+        private final String name;
+        private final Resource resource;
+
+        NamedResource(String name, Resource resource) {
+            this.name = name;
+            this.resource = resource;
+        }
+
+    }
+
+}
@@ -21,54 +21,126 @@
 
 package dev.fkmatsuda.spring.jdbc;
 
-import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.sql.DataSource;
 
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StreamUtils;
 
 import dev.fkmatsuda.spring.common.FileUtils;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Component
-public class SqlExecutorProvider {
+public class SqlExecutorProvider implements DisposableBean {
+
+    public static final int DEFAULT_SQL_CACHE_LIMIT = 1024;
+    public static final int DEFAULT_ASYNC_CONCURRENCY = 10;
+
+    private static final String[] POOL_SIZE_PROPERTIES = { "maximumPoolSize", "maxTotal", "maxActive",
+            "maxPoolSize" };
+
+    static final long NOT_TIMED = Long.MIN_VALUE;
 
     private final ApplicationContext context;
 
+    private int sqlCacheLimit = DEFAULT_SQL_CACHE_LIMIT;
+    private volatile CachingNamedParameterJdbcTemplate jdbcTemplate = null;
+    private volatile SqlMetrics metrics = SqlMetrics.NOOP;
+    private volatile SlowQueryLog slowQueryLog = null;
+    private volatile ReplicaRouting replicaRouting = null;
+    private volatile InListExpansion inListExpansion = null;
+    private volatile SqlCatalog sqlCatalog = null;
+    private volatile QueryResultCache resultCache = null;
+    private volatile Executor asyncExecutor = null;
+    private ExecutorService defaultAsyncExecutor = null;
+    private int asyncConcurrency = 0;
+    private volatile BoundedExecutor boundedAsyncExecutor = null;
+    private volatile SqlCache<SelectStatement> selectStatementCache = new SqlCache<>(DEFAULT_SQL_CACHE_LIMIT,
+            SelectStatement::parse);
+    private final Map<Class<?>, SqlCache<CompiledRowMapper<?>>> rowMapperCaches = new ConcurrentHashMap<>();
+
     public static class SqlExecutor {
 
-        private static final Pattern QUERY_COUNT_PATTERN = Pattern.compile("(^\\s*select\\s+)(.*?)(\\s+from\\s+.*)($)",
-                Pattern.DOTALL | Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
-        private static final Pattern ORDER_LIMIT_PATTERN = Pattern.compile(
-                "(^.*?)(?>(\\s+order\\s+by)|(\\s+limit)|(\\s+offset))(\\s+.*)($)",
-                Pattern.DOTALL | Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
+        public static final int DEFAULT_BATCH_SIZE = 1000;
+        public static final int DEFAULT_FETCH_SIZE = 1000;
+        public static final int DEFAULT_MAX_STATEMENT_PARAMETERS = 32767;
+
+        private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+        private static final int MAX_ROWS_PER_STATEMENT = 128;
 
         private final String sql;
-        private final NamedParameterJdbcTemplate jdbcTemplate;
+        private final CachingNamedParameterJdbcTemplate jdbcTemplate;
         private final SqlExecutorProvider provider;
         private final DataSource dataSource;
 
         private MapSqlParameterSource parameters = null;
+        private String[] cacheTables = null;
+
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private List<MapSqlParameterSource> batch = null;
+        private List<int[]> batchCounts = null;
+        private boolean rewriteBatchedInserts = false;
+        private int maxStatementParameters = DEFAULT_MAX_STATEMENT_PARAMETERS;
+        private MultiRowInsert multiRowInsert = null;
+
+        private int fetchSize = DEFAULT_FETCH_SIZE;
+        private boolean readFromPrimary = false;
 
         public <P> SqlExecutor setParameter(String name, P value) {
 
@@ -82,41 +154,492 @@ public class SqlExecutorProvider {
 
         }
 
-        public <R> List<R> query(RowMapper<R> rowMapper) {
-            if (Objects.nonNull(parameters)) {
-                return this.jdbcTemplate.query(sql, parameters, rowMapper);
+        /**
+         * Sets a parameter bound with the given {@link java.sql.Types SQL type}
+         * instead of the type inferred from its value.
+         */
+        public <P> SqlExecutor setParameter(String name, P value, int sqlType) {
+
+            if (Objects.isNull(parameters)) {
+                this.parameters = new MapSqlParameterSource();
+            }
+            this.parameters.addValue(name, value, sqlType);
+
+            return this;
+
+        }
+
+        /**
+         * Sends the queries of this executor to the primary data source even
+         * when the provider routes reads to replicas, for reads that must see
+         * the writes just made.
+         */
+        public SqlExecutor readFromPrimary() {
+            this.readFromPrimary = true;
+            return this;
+        }
+
+        private boolean beginRead() {
+            return !readFromPrimary && provider.beginRead();
+        }
+
+        /**
+         * Pins a connection and prepares this SQL once for repeated executions,
+         * binding the parameters already set on this executor.
+         */
+        public PreparedSqlExecutor prepare() throws InvalidArgumentException {
+            PreparedSqlExecutor prepared = new PreparedSqlExecutor(provider, jdbcTemplate, sql, fetchSize);
+            try {
+                if (Objects.nonNull(parameters)) {
+                    for (Map.Entry<String, Object> parameter : parameters.getValues().entrySet()) {
+                        String name = parameter.getKey();
+                        if (prepared.hasParameter(name)) {
+                            prepared.setParameter(name, parameter.getValue(), parameters.getSqlType(name),
+                                    parameters.getTypeName(name));
+                        }
+                    }
+                }
+                return prepared;
+            } catch (InvalidArgumentException | RuntimeException e) {
+                prepared.close();
+                throw e;
             }
-            return this.jdbcTemplate.query(sql, rowMapper);
+        }
+
+        /**
+         * Returns a row mapper to the given type, shared by every executor of
+         * this SQL, that resolves its columns once.
+         */
+        public <T> RowMapper<T> rowMapper(Class<T> type) {
+            return provider.rowMapper(sql, type);
+        }
+
+        public <T> List<T> queryForObjects(Class<T> type) {
+            return query(rowMapper(type));
+        }
+
+        public <R> List<R> query(RowMapper<R> rowMapper) {
+            return timedQuery(SqlOperation.QUERY, sql, parametersOrEmpty(), rowMapper);
         }
 
         public <R> R query(ResultSetExtractor<R> extractor) {
-            if (Objects.nonNull(parameters)) {
-                return this.jdbcTemplate.query(sql, parameters, extractor);
+            return timedQuery(SqlOperation.QUERY, sql, parametersOrEmpty(), extractor);
+        }
+
+        private <R> List<R> timedQuery(SqlOperation operation, String querySql, SqlParameterSource queryParameters,
+                RowMapper<R> rowMapper) {
+            long start = provider.startTiming();
+            boolean read = beginRead();
+            try {
+                List<R> result = this.jdbcTemplate.query(querySql, queryParameters, rowMapper);
+                provider.recordExecution(operation, querySql, queryParameters, start, result.size(), null);
+                return result;
+            } catch (RuntimeException e) {
+                provider.recordExecution(operation, querySql, queryParameters, start, 0, e);
+                throw e;
+            } finally {
+                provider.endRead(read);
+            }
+        }
+
+        private <R> R timedQuery(SqlOperation operation, String querySql, SqlParameterSource queryParameters,
+                ResultSetExtractor<R> extractor) {
+            long start = provider.startTiming();
+            boolean read = beginRead();
+            try {
+                R result = this.jdbcTemplate.query(querySql, queryParameters, extractor);
+                provider.recordExecution(operation, querySql, queryParameters, start, rowCount(result), null);
+                return result;
+            } catch (RuntimeException e) {
+                provider.recordExecution(operation, querySql, queryParameters, start, 0, e);
+                throw e;
+            } finally {
+                provider.endRead(read);
+            }
+        }
+
+        public SqlExecutor setFetchSize(int fetchSize) throws InvalidArgumentException {
+            if (fetchSize < 0) {
+                throw new InvalidArgumentException("Fetch size cannot be negative");
+            }
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * Streams the query result over a forward only, read only cursor. The
+         * connection stays open until the returned stream is closed, so it must be
+         * consumed inside a try-with-resources block.
+         */
+        public <R> Stream<R> queryForStream(RowMapper<R> rowMapper) {
+            boolean read = beginRead();
+            try {
+                return openStream(rowMapper);
+            } finally {
+                provider.endRead(read);
+            }
+        }
+
+        private <R> Stream<R> openStream(RowMapper<R> rowMapper) {
+            long start = provider.startTiming();
+            if (start == NOT_TIMED) {
+                return this.jdbcTemplate.getJdbcOperations().queryForStream(cursorStatementCreator(), rowMapper);
+            }
+            try {
+                LongAdder rows = new LongAdder();
+                return this.jdbcTemplate.getJdbcOperations().queryForStream(cursorStatementCreator(), rowMapper)
+                        .peek(row -> rows.increment())
+                        .onClose(() -> provider.recordExecution(SqlOperation.STREAM, sql, parameters, start, rows.sum(), null));
+            } catch (RuntimeException e) {
+                provider.recordExecution(SqlOperation.STREAM, sql, parameters, start, 0, e);
+                throw e;
+            }
+        }
+
+        public void forEachRow(RowCallbackHandler rowCallbackHandler) {
+            boolean read = beginRead();
+            try {
+                scanRows(rowCallbackHandler);
+            } finally {
+                provider.endRead(read);
+            }
+        }
+
+        private void scanRows(RowCallbackHandler rowCallbackHandler) {
+            long start = provider.startTiming();
+            if (start == NOT_TIMED) {
+                this.jdbcTemplate.getJdbcOperations().query(cursorStatementCreator(), rowCallbackHandler);
+                return;
+            }
+            long[] rows = new long[1];
+            try {
+                this.jdbcTemplate.getJdbcOperations().query(cursorStatementCreator(), (RowCallbackHandler) rs -> {
+                    rows[0]++;
+                    rowCallbackHandler.processRow(rs);
+                });
+                provider.recordExecution(SqlOperation.STREAM, sql, parameters, start, rows[0], null);
+            } catch (RuntimeException e) {
+                provider.recordExecution(SqlOperation.STREAM, sql, parameters, start, rows[0], e);
+                throw e;
+            }
+        }
+
+        /**
+         * Prepares a scan of this query split into ranges of a numeric key
+         * column, from inclusive to exclusive, read concurrently. The
+         * {@code partition_from} and {@code partition_to} parameter names are
+         * reserved.
+         */
+        public PartitionedScan partitionedScan(String keyColumn, long from, long to) throws InvalidArgumentException {
+            if (Objects.isNull(keyColumn) || keyColumn.isBlank()) {
+                throw new InvalidArgumentException("Key column is required");
+            }
+            if (from > to) {
+                throw new InvalidArgumentException("Range start cannot be after its end");
+            }
+            SelectStatement statement = provider.selectStatement(sql);
+            if (statement.isLimited()) {
+                throw new InvalidArgumentException("Partitioned scans cannot read a query with its own limit");
+            }
+            MapSqlParameterSource scanParameters = copyParameters();
+            addReservedParameter(scanParameters, "partition_from", from);
+            addReservedParameter(scanParameters, "partition_to", to);
+            return new PartitionedScan(provider, jdbcTemplate, statement.getBodySql(), scanParameters, fetchSize,
+                    readFromPrimary, keyColumn, from, to);
+        }
+
+        public long exportTo(Path file, DataFormat format) throws IOException {
+            return exportTo(file, format, false);
+        }
+
+        /**
+         * Writes the query result to a file, replacing it if it exists, and
+         * returns the number of rows written.
+         *
+         * @see #exportTo(OutputStream, DataFormat, boolean)
+         */
+        public long exportTo(Path file, DataFormat format, boolean gzip) throws IOException {
+            try (OutputStream output = Files.newOutputStream(file)) {
+                return exportTo(output, format, gzip);
             }
-            return this.jdbcTemplate.query(sql, extractor);
+        }
+
+        public long exportTo(OutputStream output, DataFormat format) throws IOException {
+            return exportTo(output, format, false);
+        }
+
+        /**
+         * Streams the query result as UTF-8 CSV, with a header line, or
+         * newline delimited JSON, reading rows through a cursor of the
+         * configured fetch size so memory use does not depend on the result
+         * size. The stream is flushed but left open.
+         */
+        public long exportTo(OutputStream output, DataFormat format, boolean gzip) throws IOException {
+            OutputStream target = StreamUtils.nonClosing(output);
+            if (gzip) {
+                target = new GZIPOutputStream(target, EXPORT_BUFFER_SIZE);
+            }
+            try (Writer writer = new OutputStreamWriter(target, StandardCharsets.UTF_8)) {
+                ResultSetExporter exporter = new ResultSetExporter(writer, Objects.requireNonNull(format));
+                long start = provider.startTiming();
+                boolean read = beginRead();
+                try {
+                    Long rows = this.jdbcTemplate.getJdbcOperations().query(cursorStatementCreator(), exporter);
+                    provider.recordExecution(SqlOperation.STREAM, sql, parameters, start, rows, null);
+                    return rows;
+                } catch (UncheckedIOException e) {
+                    provider.recordExecution(SqlOperation.STREAM, sql, parameters, start, 0, e.getCause());
+                    throw e.getCause();
+                } catch (RuntimeException e) {
+                    provider.recordExecution(SqlOperation.STREAM, sql, parameters, start, 0, e);
+                    throw e;
+                } finally {
+                    provider.endRead(read);
+                }
+            }
+        }
+
+        private PreparedStatementCreator cursorStatementCreator() {
+            return this.jdbcTemplate.getCursorStatementCreator(sql, parameters, fetchSize);
         }
 
         public void update() throws SqlException {
             checkParameters();
 
-            this.jdbcTemplate.update(sql, parameters);
+            long start = provider.startTiming();
+            try {
+                int rows = this.jdbcTemplate.update(sql, parameters);
+                provider.recordExecution(SqlOperation.UPDATE, sql, parameters, start, rows, null);
+            } catch (RuntimeException e) {
+                provider.recordExecution(SqlOperation.UPDATE, sql, parameters, start, 0, e);
+                throw e;
+            } finally {
+                provider.invalidateResultCache(sql);
+            }
+        }
+
+        /**
+         * Marks the scalar {@code queryFor*} results of this executor as cacheable
+         * in the provider result cache, tagged with the tables the query reads.
+         * Has no effect when the provider has no result cache.
+         */
+        public SqlExecutor cacheable(String... tables) throws InvalidArgumentException {
+            if (tables.length == 0) {
+                throw new InvalidArgumentException("At least one table is required to cache a query");
+            }
+            this.cacheTables = QueryResultCache.normalizeTables(tables);
+            return this;
+        }
+
+        private <R> R queryCached(String kind, ResultSetExtractor<R> extractor) {
+            QueryResultCache cache = provider.getResultCache();
+            if (Objects.isNull(cache) || Objects.isNull(cacheTables)) {
+                return query(extractor);
+            }
+            Map<String, Object> values = Objects.isNull(parameters) ? Collections.emptyMap()
+                    : new HashMap<>(parameters.getValues());
+            return cache.get(sql, kind, values, cacheTables, () -> query(extractor));
+        }
+
+        public SqlExecutor setBatchSize(int batchSize) throws InvalidArgumentException {
+            if (batchSize < 1) {
+                throw new InvalidArgumentException("Batch size must be greater than zero");
+            }
+            this.batchSize = batchSize;
+            if (Objects.nonNull(batch) && batch.size() >= batchSize) {
+                flushBatch();
+            }
+            return this;
+        }
+
+        /**
+         * Sends the batches of a single row {@code INSERT ... VALUES (:a, :b)} as
+         * multi-row {@code VALUES (?, ?), (?, ?), ...} statements of up to 128
+         * rows, fewer when the statement parameter limit requires it. Many
+         * drivers send a JDBC batch as one statement per row, so this saves most
+         * of the round trips, while larger statements would cost more to parse
+         * than they save. Rows then report {@link Statement#SUCCESS_NO_INFO} unless their
+         * statement inserted exactly one row each. Statements of any other shape
+         * keep using plain JDBC batches.
+         */
+        public SqlExecutor rewriteBatchedInserts() {
+            this.rewriteBatchedInserts = true;
+            return this;
+        }
+
+        /**
+         * Bounds the placeholders of each statement sent by
+         * {@link #rewriteBatchedInserts()}, below the limit of the driver.
+         */
+        public SqlExecutor setMaxStatementParameters(int maxStatementParameters) throws InvalidArgumentException {
+            if (maxStatementParameters < 1) {
+                throw new InvalidArgumentException("Max statement parameters must be greater than zero");
+            }
+            this.maxStatementParameters = maxStatementParameters;
+            return this;
+        }
+
+        /**
+         * Queues a copy of the current parameters for batched execution. Pending
+         * parameter sets are sent to the database as a single JDBC batch whenever
+         * the batch size is reached.
+         */
+        public SqlExecutor addBatch() throws SqlException {
+            checkParameters();
+
+            if (Objects.isNull(batch)) {
+                batch = new ArrayList<>(Math.min(batchSize, DEFAULT_BATCH_SIZE));
+            }
+            batch.add(copyOf(parameters));
+            if (batch.size() >= batchSize) {
+                flushBatch();
+            }
+            return this;
+        }
+
+        /**
+         * Sends any pending parameter sets and returns the update counts of every
+         * batch flushed since the last call, one array per JDBC batch.
+         */
+        public int[][] executeBatch() {
+            flushBatch();
+            if (Objects.isNull(batchCounts)) {
+                return new int[0][];
+            }
+            int[][] counts = batchCounts.toArray(new int[0][]);
+            batchCounts = null;
+            return counts;
+        }
+
+        private void flushBatch() {
+            if (Objects.isNull(batch) || batch.isEmpty()) {
+                return;
+            }
+            int[] counts;
+            long start = provider.startTiming();
+            try {
+                MultiRowInsert insert = multiRowInsert();
+                counts = Objects.nonNull(insert) ? insertRows(insert)
+                        : this.jdbcTemplate.batchUpdate(sql, batch.toArray(new SqlParameterSource[0]));
+                provider.recordExecution(SqlOperation.BATCH, sql, null, start, updatedRows(counts), null);
+            } catch (RuntimeException e) {
+                provider.recordExecution(SqlOperation.BATCH, sql, null, start, 0, e);
+                throw e;
+            } finally {
+                batch.clear();
+                provider.invalidateResultCache(sql);
+            }
+            if (Objects.isNull(batchCounts)) {
+                batchCounts = new ArrayList<>();
+            }
+            batchCounts.add(counts);
+        }
+
+        private MultiRowInsert multiRowInsert() {
+            if (!rewriteBatchedInserts || batch.size() < 2) {
+                return null;
+            }
+            if (Objects.isNull(multiRowInsert)) {
+                multiRowInsert = MultiRowInsert.parse(sql);
+                if (Objects.isNull(multiRowInsert)) {
+                    rewriteBatchedInserts = false;
+                    return null;
+                }
+            }
+            if (multiRowInsert.rowsPerStatement(maxStatementParameters) < 2) {
+                return null;
+            }
+            for (MapSqlParameterSource row : batch) {
+                for (String name : multiRowInsert.getParameterNames()) {
+                    if (!row.hasValue(name) || row.getValue(name) instanceof Collection) {
+                        return null;
+                    }
+                }
+            }
+            return multiRowInsert;
+        }
+
+        /**
+         * Sends the pending rows as a JDBC batch of full multi-row statements,
+         * all with the same text, followed by one statement for the remainder.
+         */
+        private int[] insertRows(MultiRowInsert insert) {
+            JdbcOperations jdbcOperations = this.jdbcTemplate.getJdbcOperations();
+            List<String> names = insert.getParameterNames();
+            int rows = batch.size();
+            int perStatement = Math.min(Math.min(rows, MAX_ROWS_PER_STATEMENT),
+                    insert.rowsPerStatement(maxStatementParameters));
+            int statements = rows / perStatement;
+            int[] counts = new int[rows];
+            int[] statementCounts = jdbcOperations.batchUpdate(insert.sql(perStatement),
+                    new BatchPreparedStatementSetter() {
+
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            bindRows(ps, names, i * perStatement, perStatement);
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return statements;
+                        }
+
+                    });
+            for (int i = 0; i < statements; i++) {
+                fillRowCounts(counts, i * perStatement, perStatement, statementCounts[i]);
+            }
+            int done = statements * perStatement;
+            if (done < rows) {
+                int remainder = rows - done;
+                fillRowCounts(counts, done, remainder, jdbcOperations.update(insert.sql(remainder),
+                        ps -> bindRows(ps, names, done, remainder)));
+            }
+            return counts;
+        }
+
+        private void bindRows(PreparedStatement ps, List<String> names, int from, int rows) throws SQLException {
+            int index = 1;
+            for (int row = from; row < from + rows; row++) {
+                MapSqlParameterSource values = batch.get(row);
+                for (String name : names) {
+                    Object value = values.getValue(name);
+                    if (value instanceof SqlParameterValue) {
+                        SqlParameterValue typed = (SqlParameterValue) value;
+                        StatementCreatorUtils.setParameterValue(ps, index++, typed, typed.getValue());
+                    } else {
+                        StatementCreatorUtils.setParameterValue(ps, index++, values.getSqlType(name),
+                                values.getTypeName(name), value);
+                    }
+                }
+            }
+        }
+
+        private static void fillRowCounts(int[] counts, int from, int rows, int statementCount) {
+            Arrays.fill(counts, from, from + rows, statementCount == rows ? 1 : Statement.SUCCESS_NO_INFO);
         }
 
         public void executeDDL() throws SqlException {
 
-            try (Connection conn = this.dataSource.getConnection()) {
-                conn.setAutoCommit(true);
+            long start = provider.startTiming();
+            Connection conn = null;
+            try {
+                // joins the connection bound by a pipeline or transaction, if any
+                conn = DataSourceUtils.doGetConnection(this.dataSource);
+                if (!DataSourceUtils.isConnectionTransactional(conn, this.dataSource)) {
+                    conn.setAutoCommit(true);
+                }
                 try (Statement st = conn.createStatement()) {
-                    String[] ddlCommands = sql.split(";");
-                    for (String ddlCommand : ddlCommands) {
-                        if (ddlCommand.trim().isEmpty()) {
-                            continue;
-                        }
+                    for (String ddlCommand : SqlStatementSplitter.split(sql)) {
                         st.execute(ddlCommand);
                     }
                 }
+                provider.recordExecution(SqlOperation.DDL, sql, null, start, 0, null);
             } catch (SQLException e) {
+                provider.recordExecution(SqlOperation.DDL, sql, null, start, 0, e);
                 throw new SqlException(e);
+            } finally {
+                DataSourceUtils.releaseConnection(conn, this.dataSource);
+                provider.invalidateResultCache(sql);
             }
         }
 
@@ -128,16 +651,115 @@ public class SqlExecutorProvider {
 
         }
 
-        private SqlExecutor(SqlExecutorProvider provider, DataSource dataSource, String sql) {
+        public <R> CompletableFuture<List<R>> queryAsync(RowMapper<R> rowMapper) {
+            return async(executor -> executor.query(rowMapper));
+        }
+
+        public <R> CompletableFuture<R> queryAsync(ResultSetExtractor<R> extractor) {
+            return async(executor -> executor.query(extractor));
+        }
+
+        public CompletableFuture<Void> updateAsync() {
+            return async(executor -> {
+                executor.update();
+                return null;
+            });
+        }
+
+        public CompletableFuture<String> queryForStringAsync() {
+            return async(SqlExecutor::queryForString);
+        }
+
+        public CompletableFuture<Long> queryForLongAsync() {
+            return async(SqlExecutor::queryForLong);
+        }
+
+        public CompletableFuture<Integer> queryForIntAsync() {
+            return async(SqlExecutor::queryForInt);
+        }
+
+        public CompletableFuture<BigDecimal> queryForBigDecimalAsync() {
+            return async(SqlExecutor::queryForBigDecimal);
+        }
+
+        public CompletableFuture<Boolean> queryForBooleanAsync() {
+            return async(SqlExecutor::queryForBoolean);
+        }
+
+        public CompletableFuture<List<Long>> queryForLongListAsync() {
+            return async(SqlExecutor::queryForLongList);
+        }
+
+        public CompletableFuture<Long> countAsync() {
+            return async(SqlExecutor::count);
+        }
+
+        /**
+         * Runs the operation on the provider async executor against a copy of
+         * this executor taken now, so parameters may be changed for the next
+         * call right away. Inside an active transaction the operation runs on
+         * the calling thread instead, as only that thread sees the transaction
+         * connection, and the returned future is already complete.
+         */
+        private <T> CompletableFuture<T> async(SqlCall<T> operation) {
+            SqlExecutor snapshot = new SqlExecutor(provider, jdbcTemplate, sql);
+            snapshot.parameters = Objects.isNull(parameters) ? null : copyParameters();
+            snapshot.cacheTables = cacheTables;
+            snapshot.fetchSize = fetchSize;
+            snapshot.readFromPrimary = readFromPrimary;
+
+            CompletableFuture<T> future = new CompletableFuture<>();
+            Runnable task = () -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(operation.call(snapshot));
+                } catch (SqlException | InvalidArgumentException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            };
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                task.run();
+                return future;
+            }
+            provider.boundedAsyncExecutor().execute(task, future::completeExceptionally);
+            return future;
+        }
+
+        private SqlExecutor(SqlExecutorProvider provider, CachingNamedParameterJdbcTemplate jdbcTemplate, String sql) {
             super();
-            this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+            this.jdbcTemplate = jdbcTemplate;
             this.sql = sql;
             this.provider = provider;
-            this.dataSource = dataSource;
+            this.dataSource = jdbcTemplate.getJdbcTemplate().getDataSource();
+        }
+
+        /**
+         * Reads the first column of the first row as the given type, or null
+         * when there are no rows.
+         *
+         * @see ResultSetExtractorFactory#scalarExtractor(Class)
+         */
+        public <T> T queryForScalar(Class<T> type) {
+            ScalarExtractor<T> extractor = ScalarExtractor.of(type, 1);
+            return queryCached(extractor.getKind(), extractor);
+        }
+
+        /**
+         * Reads the given column, starting at 1, of the first row as the given
+         * type, or null when there are no rows.
+         */
+        public <T> T queryForScalar(Class<T> type, int column) throws InvalidArgumentException {
+            if (column < 1) {
+                throw new InvalidArgumentException("Column index must be greater than zero");
+            }
+            ScalarExtractor<T> extractor = ScalarExtractor.of(type, column);
+            return queryCached(extractor.getKind(), extractor);
         }
 
         public String queryForString() {
-            return query(ResultSetExtractorFactory.stringExtractor());
+            return queryCached("string", ResultSetExtractorFactory.stringExtractor());
         }
 
         public List<Long> queryForLongList() {
@@ -145,47 +767,573 @@ public class SqlExecutorProvider {
         }
 
         public Long queryForLong() {
-            return query(ResultSetExtractorFactory.longExtractor());
+            return queryCached("long", ResultSetExtractorFactory.longExtractor());
+        }
+
+        public long[] queryForLongArray() {
+            return query(ResultSetExtractorFactory.longArrayExtractor());
+        }
+
+        public int[] queryForIntArray() {
+            return query(ResultSetExtractorFactory.intArrayExtractor());
+        }
+
+        public double[] queryForDoubleArray() {
+            return query(ResultSetExtractorFactory.doubleArrayExtractor());
+        }
+
+        public LongColumn queryForLongColumn() {
+            return query(ResultSetExtractorFactory.longColumnExtractor());
+        }
+
+        public IntColumn queryForIntColumn() {
+            return query(ResultSetExtractorFactory.intColumnExtractor());
+        }
+
+        public DoubleColumn queryForDoubleColumn() {
+            return query(ResultSetExtractorFactory.doubleColumnExtractor());
+        }
+
+        /**
+         * Fetches one page of the query ordered by the given key columns, seeking
+         * past the keys held by {@code after} instead of using an offset. Key
+         * columns must be unique together and named as they appear in the query
+         * result, each optionally followed by {@code ASC} or {@code DESC}; pass a
+         * {@code null} token for the first page. The query must not have a limit
+         * of its own, and the {@code keyset_} parameter names are reserved.
+         */
+        public <R> KeysetPage<R> queryKeyset(RowMapper<R> rowMapper, KeysetToken after, int pageSize,
+                String... keyColumns) throws InvalidArgumentException {
+            if (pageSize < 1) {
+                throw new InvalidArgumentException("Page size must be greater than zero");
+            }
+            if (keyColumns.length == 0) {
+                throw new InvalidArgumentException("At least one key column is required");
+            }
+            if (Objects.nonNull(after) && after.size() != keyColumns.length) {
+                throw new InvalidArgumentException("Keyset token does not match the key columns");
+            }
+            SelectStatement statement = provider.selectStatement(sql);
+            if (statement.isLimited()) {
+                throw new InvalidArgumentException("Keyset pages cannot be taken from a query with its own limit");
+            }
+
+            String[] columns = new String[keyColumns.length];
+            boolean[] descending = new boolean[keyColumns.length];
+            for (int i = 0; i < keyColumns.length; i++) {
+                String column = keyColumns[i].trim();
+                int space = column.lastIndexOf(' ');
+                String direction = space < 0 ? "" : column.substring(space + 1).toLowerCase();
+                descending[i] = "desc".equals(direction);
+                columns[i] = descending[i] || "asc".equals(direction) ? column.substring(0, space).trim() : column;
+            }
+            MapSqlParameterSource pageParameters = copyParameters();
+            StringBuilder pageSql = new StringBuilder("select * from (")
+                    .append(statement.getBodySql())
+                    .append(") keyset_q");
+            if (Objects.nonNull(after)) {
+                pageSql.append(" where ");
+                for (int i = 0; i < columns.length; i++) {
+                    addReservedParameter(pageParameters, "keyset_" + i, after.getValue(i));
+                    pageSql.append(i > 0 ? " or (" : "(");
+                    for (int j = 0; j < i; j++) {
+                        pageSql.append(columns[j]).append(" = :keyset_").append(j).append(" and ");
+                    }
+                    pageSql.append(columns[i]).append(descending[i] ? " < :keyset_" : " > :keyset_").append(i)
+                            .append(")");
+                }
+            }
+            pageSql.append(" order by ");
+            for (int i = 0; i < columns.length; i++) {
+                pageSql.append(i > 0 ? ", " : "").append(columns[i]).append(descending[i] ? " desc" : "");
+            }
+            pageSql.append(" limit :keyset_limit");
+            addReservedParameter(pageParameters, "keyset_limit", pageSize + 1);
+
+            return timedQuery(SqlOperation.QUERY, pageSql.toString(), pageParameters, rs -> {
+                List<R> content = new ArrayList<>(Math.min(pageSize, DEFAULT_BATCH_SIZE));
+                Object[] lastKey = null;
+                int rowNum = 0;
+                while (rs.next()) {
+                    if (rowNum == pageSize) {
+                        return new KeysetPage<>(content, new KeysetToken(lastKey));
+                    }
+                    content.add(rowMapper.mapRow(rs, rowNum));
+                    if (rowNum == pageSize - 1) {
+                        lastKey = new Object[columns.length];
+                        for (int i = 0; i < columns.length; i++) {
+                            lastKey[i] = rs.getObject(columns[i]);
+                        }
+                    }
+                    rowNum++;
+                }
+                return new KeysetPage<>(content, null);
+            });
+        }
+
+        private MapSqlParameterSource copyParameters() {
+            if (Objects.isNull(parameters)) {
+                return new MapSqlParameterSource();
+            }
+            return copyOf(parameters);
         }
 
         public Long count() throws InvalidArgumentException {
-            Matcher countMatcher = QUERY_COUNT_PATTERN.matcher(sql);
-            if (!countMatcher.matches()) {
-                throw new InvalidArgumentException("Cannot count current query result");
+            return timedQuery(SqlOperation.COUNT, countSql(), parametersOrEmpty(),
+                    ResultSetExtractorFactory.longExtractor());
+        }
+
+        /**
+         * Fetches one page of the query together with the total row count. The
+         * count runs on the bounded provider async executor while the page is
+         * read on the calling thread, each on its own connection, unless a
+         * transaction is active, in which case both run on the transaction
+         * connection in turn. A count still queued once the page is read runs on
+         * the calling thread instead. The {@code page_limit} and
+         * {@code page_offset} parameter names are reserved.
+         */
+        public <R> QueryPage<R> queryPage(RowMapper<R> rowMapper, long offset, int limit)
+                throws InvalidArgumentException {
+            if (offset < 0) {
+                throw new InvalidArgumentException("Offset cannot be negative");
+            }
+            if (limit < 1) {
+                throw new InvalidArgumentException("Limit must be greater than zero");
+            }
+            String countSql = countSql();
+            SqlParameterSource countParameters = parametersOrEmpty();
+            String pageSql = provider.selectStatement(sql).getUnlimitedSql() + " limit :page_limit offset :page_offset";
+            MapSqlParameterSource pageParameters = copyParameters();
+            addReservedParameter(pageParameters, "page_limit", limit);
+            addReservedParameter(pageParameters, "page_offset", offset);
+
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                Long total = timedQuery(SqlOperation.COUNT, countSql, countParameters,
+                        ResultSetExtractorFactory.longExtractor());
+                List<R> content = timedQuery(SqlOperation.QUERY, pageSql, pageParameters, rowMapper);
+                return new QueryPage<>(content, total, offset, limit);
+            }
+
+            AtomicBoolean counting = new AtomicBoolean();
+            CompletableFuture<Long> total = new CompletableFuture<>();
+            Runnable count = () -> {
+                if (!counting.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    total.complete(timedQuery(SqlOperation.COUNT, countSql, countParameters,
+                            ResultSetExtractorFactory.longExtractor()));
+                } catch (RuntimeException e) {
+                    total.completeExceptionally(e);
+                }
+            };
+            provider.boundedAsyncExecutor().execute(count, total::completeExceptionally);
+            List<R> content;
+            try {
+                content = timedQuery(SqlOperation.QUERY, pageSql, pageParameters, rowMapper);
+            } catch (RuntimeException e) {
+                counting.set(true);
+                throw e;
             }
-            String sqlCount = countMatcher.replaceAll("$1count(*)$3");
-            Matcher orderLimitMatcher = ORDER_LIMIT_PATTERN.matcher(sqlCount);
-            if (orderLimitMatcher.matches()) {
-                sqlCount = orderLimitMatcher.replaceAll("$1$4");
+            // the async slots may all be taken by callers waiting like this one
+            count.run();
+            try {
+                return new QueryPage<>(content, total.join(), offset, limit);
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        private static void addReservedParameter(MapSqlParameterSource parameters, String name, Object value)
+                throws InvalidArgumentException {
+            if (parameters.hasValue(name)) {
+                throw new InvalidArgumentException(String.format("Parameter name %s is reserved", name));
             }
-            SqlExecutor countExecutor = provider.forSql(sqlCount);
-            if (Objects.nonNull(parameters)) {
-                countExecutor.parameters = new MapSqlParameterSource(parameters.getValues());
+            parameters.addValue(name, value);
+        }
+
+        private String countSql() throws InvalidArgumentException {
+            String countSql = provider.selectStatement(sql).getCountSql();
+            if (Objects.isNull(countSql)) {
+                throw new InvalidArgumentException("Cannot count current query result");
+            }
+            return countSql;
+        }
+
+        private SqlParameterSource parametersOrEmpty() {
+            if (Objects.isNull(parameters)) {
+                return EmptySqlParameterSource.INSTANCE;
             }
-            return countExecutor.queryForLong();
+            return parameters;
         }
 
         public BigDecimal queryForBigDecimal() {
-            return query(ResultSetExtractorFactory.bigDecimalExtractor());
+            return queryCached("bigDecimal", ResultSetExtractorFactory.bigDecimalExtractor());
         }
 
         public Boolean queryForBoolean() {
-            return query(ResultSetExtractorFactory.booleanExtractor());
+            return queryCached("boolean", ResultSetExtractorFactory.booleanExtractor());
         }
 
         public Integer queryForInt() {
-            return query(ResultSetExtractorFactory.integerExtractor());
+            return queryCached("int", ResultSetExtractorFactory.integerExtractor());
         }
 
     }
 
     public SqlExecutor forSql(String sql) {
-        return new SqlExecutor(this, context.getBean(DataSource.class), sql);
+        return new SqlExecutor(this, jdbcTemplate(), sql);
     }
 
+    /**
+     * Reads the whole file as the text of a single executor. Scripts of many
+     * statements are better run with {@link #runScript(File)}, which streams
+     * the file instead of holding it in memory.
+     */
     public SqlExecutor loadSql(File sqlFile) throws IOException {
         String sql = FileUtils.readToString(sqlFile);
         return forSql(sql);
     }
 
+    /**
+     * Loads the {@code .sql} files under {@code location} into a catalog served
+     * by {@link #forNamedQuery(String)}, replacing any catalog loaded before.
+     */
+    public SqlCatalog loadSqlCatalog(String location) throws IOException, InvalidArgumentException {
+        SqlCatalog catalog = new SqlCatalog(this, location).load();
+        setSqlCatalog(catalog);
+        return catalog;
+    }
+
+    public void setSqlCatalog(SqlCatalog sqlCatalog) {
+        this.sqlCatalog = sqlCatalog;
+    }
+
+    public SqlCatalog getSqlCatalog() {
+        return sqlCatalog;
+    }
+
+    public SqlExecutor forNamedQuery(String name) throws InvalidArgumentException {
+        SqlCatalog catalog = this.sqlCatalog;
+        if (Objects.isNull(catalog)) {
+            throw new InvalidArgumentException("No SQL catalog loaded");
+        }
+        return catalog.forNamedQuery(name);
+    }
+
+    /**
+     * Starts a pipeline running calls on several executors over one connection.
+     */
+    public SqlPipeline pipeline() {
+        return new SqlPipeline(jdbcTemplate().getJdbcTemplate().getDataSource());
+    }
+
+    /**
+     * Creates a loader streaming flat files into the given INSERT statement.
+     */
+    public BulkLoader bulkLoader(String insertSql) {
+        return new BulkLoader(this, jdbcTemplate(), insertSql);
+    }
+
+    public SqlScriptRunner scriptRunner() {
+        return new SqlScriptRunner(this, jdbcTemplate().getJdbcTemplate().getDataSource());
+    }
+
+    public long runScript(File sqlFile) throws IOException, SqlException {
+        return scriptRunner().run(sqlFile.toPath());
+    }
+
+    public synchronized void setSqlCacheLimit(int sqlCacheLimit) throws InvalidArgumentException {
+        if (sqlCacheLimit < 0) {
+            throw new InvalidArgumentException("SQL cache limit cannot be negative");
+        }
+        this.sqlCacheLimit = sqlCacheLimit;
+        this.jdbcTemplate = null;
+        this.selectStatementCache = new SqlCache<>(sqlCacheLimit, SelectStatement::parse);
+        this.rowMapperCaches.clear();
+    }
+
+    public SqlCache<ParsedSql> getParsedSqlCache() {
+        return jdbcTemplate().getParsedSqlCache();
+    }
+
+    public SqlCache<?> getCountSqlCache() {
+        return selectStatementCache;
+    }
+
+    public void setMetrics(SqlMetrics metrics) {
+        this.metrics = Objects.nonNull(metrics) ? metrics : SqlMetrics.NOOP;
+    }
+
+    public SqlMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Installs a log capturing executions slower than its threshold, or removes
+     * it when {@code null}.
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    long startTiming() {
+        return metrics.isEnabled() || Objects.nonNull(slowQueryLog) ? System.nanoTime() : NOT_TIMED;
+    }
+
+    void recordExecution(SqlOperation operation, String sql, SqlParameterSource parameters, long start, long rows,
+            Throwable error) {
+        if (start == NOT_TIMED) {
+            return;
+        }
+        long duration = System.nanoTime() - start;
+        SqlMetrics current = this.metrics;
+        if (current.isEnabled()) {
+            current.recordExecution(operation, sql, duration, rows, error);
+        }
+        SlowQueryLog log = this.slowQueryLog;
+        if (Objects.nonNull(log) && log.shouldRecord(duration)) {
+            log.record(operation, sql, parameters, duration, rows, error);
+        }
+    }
+
+    static long rowCount(Object result) {
+        if (Objects.isNull(result)) {
+            return 0;
+        }
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        if (result instanceof PrimitiveColumn) {
+            return ((PrimitiveColumn) result).size();
+        }
+        if (result instanceof int[]) {
+            return ((int[]) result).length;
+        }
+        if (result instanceof long[]) {
+            return ((long[]) result).length;
+        }
+        if (result instanceof double[]) {
+            return ((double[]) result).length;
+        }
+        return 1;
+    }
+
+    public void setResultCache(QueryResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    void clearResultCache() {
+        QueryResultCache cache = this.resultCache;
+        if (Objects.nonNull(cache)) {
+            cache.clear();
+        }
+    }
+
+    void invalidateResultCache(String sql) {
+        QueryResultCache cache = this.resultCache;
+        if (Objects.nonNull(cache)) {
+            cache.invalidateReferencedTables(sql);
+        }
+    }
+
+    /**
+     * Sets the executor used to run queries off the calling thread. Blocking
+     * JDBC calls run on it, so it should not be a shared compute pool; a virtual
+     * thread per task executor is a good fit where available.
+     */
+    public synchronized void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+        this.boundedAsyncExecutor = null;
+    }
+
+    /**
+     * Limits how many {@code *Async} operations run at the same time; the rest
+     * wait in a queue without holding a thread or a connection. When not set,
+     * the limit is the maximum size of the connection pool if the data source
+     * exposes one, or {@link #DEFAULT_ASYNC_CONCURRENCY} otherwise. Zero
+     * restores that default.
+     */
+    public synchronized void setAsyncConcurrency(int asyncConcurrency) throws InvalidArgumentException {
+        if (asyncConcurrency < 0) {
+            throw new InvalidArgumentException("Async concurrency cannot be negative");
+        }
+        this.asyncConcurrency = asyncConcurrency;
+        this.boundedAsyncExecutor = null;
+    }
+
+    public synchronized int getAsyncConcurrency() {
+        return asyncConcurrency > 0 ? asyncConcurrency : poolSize(context.getBean(DataSource.class));
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (Objects.nonNull(defaultAsyncExecutor)) {
+            defaultAsyncExecutor.shutdown();
+            defaultAsyncExecutor = null;
+        }
+    }
+
+    Executor asyncExecutor() {
+        Executor executor = this.asyncExecutor;
+        if (Objects.nonNull(executor)) {
+            return executor;
+        }
+        synchronized (this) {
+            if (Objects.isNull(defaultAsyncExecutor)) {
+                AtomicInteger threadCount = new AtomicInteger();
+                defaultAsyncExecutor = Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable, "sql-executor-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return defaultAsyncExecutor;
+        }
+    }
+
+    BoundedExecutor boundedAsyncExecutor() {
+        BoundedExecutor executor = this.boundedAsyncExecutor;
+        if (Objects.nonNull(executor)) {
+            return executor;
+        }
+        synchronized (this) {
+            if (Objects.isNull(boundedAsyncExecutor)) {
+                boundedAsyncExecutor = new BoundedExecutor(asyncExecutor(), getAsyncConcurrency());
+            }
+            return boundedAsyncExecutor;
+        }
+    }
+
+    private static int poolSize(DataSource dataSource) {
+        BeanWrapper wrapper = PropertyAccessorFactory.forBeanPropertyAccess(dataSource);
+        for (String property : POOL_SIZE_PROPERTIES) {
+            if (wrapper.isReadableProperty(property)) {
+                Object value = wrapper.getPropertyValue(property);
+                if (value instanceof Number && ((Number) value).intValue() > 0) {
+                    return ((Number) value).intValue();
+                }
+            }
+        }
+        return DEFAULT_ASYNC_CONCURRENCY;
+    }
+
+    /**
+     * Routes queries to read replicas, or back to the primary data source when
+     * {@code null}.
+     */
+    public void setReplicaRouting(ReplicaRouting replicaRouting) {
+        this.replicaRouting = replicaRouting;
+    }
+
+    public ReplicaRouting getReplicaRouting() {
+        return replicaRouting;
+    }
+
+    /**
+     * Pads or binds as arrays the collection parameters of every statement, or
+     * leaves them to plain expansion when {@code null}.
+     */
+    public void setInListExpansion(InListExpansion inListExpansion) {
+        this.inListExpansion = inListExpansion;
+    }
+
+    public InListExpansion getInListExpansion() {
+        return inListExpansion;
+    }
+
+    /**
+     * Marks the connections taken by the current thread as reads until
+     * {@link #endRead(boolean)}, returning whether the mark was set here.
+     */
+    boolean beginRead() {
+        return Objects.nonNull(replicaRouting) && ReplicaRouting.beginRead();
+    }
+
+    void endRead(boolean began) {
+        if (began) {
+            ReplicaRouting.endRead();
+        }
+    }
+
+    /**
+     * Reads outside any transaction synchronization may use a replica, as
+     * their connection is never bound to the thread under the primary key.
+     * The read mark is dropped once used, so statements issued while the read
+     * runs, such as writes from a row callback, go to the primary.
+     */
+    Connection routeConnection(DataSource primary) throws SQLException {
+        ReplicaRouting routing = this.replicaRouting;
+        if (Objects.isNull(routing)) {
+            return primary.getConnection();
+        }
+        boolean read = ReplicaRouting.isRead();
+        ReplicaRouting.endRead();
+        if (read && !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return routing.getReadConnection(primary);
+        }
+        return routing.getWriteConnection(primary);
+    }
+
+    /**
+     * Copies the parameter values together with the SQL types and type names
+     * registered for them.
+     */
+    static MapSqlParameterSource copyOf(MapSqlParameterSource parameters) {
+        MapSqlParameterSource copy = new MapSqlParameterSource();
+        for (String name : parameters.getParameterNames()) {
+            copy.addValue(name, parameters.getValue(name), parameters.getSqlType(name), parameters.getTypeName(name));
+        }
+        return copy;
+    }
+
+    /**
+     * Sums the update counts of a batch, skipping those the driver did not
+     * report.
+     */
+    static long updatedRows(int[] counts) {
+        long rows = 0;
+        for (int count : counts) {
+            rows += Math.max(count, 0);
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> CompiledRowMapper<T> rowMapper(String sql, Class<T> type) {
+        return (CompiledRowMapper<T>) rowMapperCaches
+                .computeIfAbsent(type, key -> new SqlCache<>(sqlCacheLimit, statement -> new CompiledRowMapper<>(key)))
+                .get(sql);
+    }
+
+    SelectStatement selectStatement(String sql) {
+        return selectStatementCache.get(sql);
+    }
+
+    private CachingNamedParameterJdbcTemplate jdbcTemplate() {
+        CachingNamedParameterJdbcTemplate template = this.jdbcTemplate;
+        if (Objects.isNull(template)) {
+            synchronized (this) {
+                template = this.jdbcTemplate;
+                if (Objects.isNull(template)) {
+                    template = new CachingNamedParameterJdbcTemplate(
+                            new InstrumentedDataSource(context.getBean(DataSource.class), this), this, sqlCacheLimit);
+                    this.jdbcTemplate = template;
+                }
+            }
+        }
+        return template;
+    }
+
 }
@@ -0,0 +1,86 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+/**
+ * Normalizes SQL text so statements differing only in literal values,
+ * comments, whitespace or keyword case share the same fingerprint.
+ */
+public final class SqlFingerprint {
+
+    private SqlFingerprint() {}
+
+    public static String of(String sql) {
+        StringBuilder fingerprint = new StringBuilder(Math.min(sql.length(), 256));
+        int i = 0;
+        int length = sql.length();
+        while (i < length) {
+            char c = sql.charAt(i);
+            int next = SqlScanner.skipLiteralOrComment(sql, i);
+            if (next != i) {
+                if (c == '"' || c == '`') {
+                    fingerprint.append(sql, i, next);
+                } else if (c == '\'' || c == '$') {
+                    fingerprint.append('?');
+                } else {
+                    appendSpace(fingerprint);
+                }
+                i = next;
+            } else if (Character.isWhitespace(c)) {
+                appendSpace(fingerprint);
+                i++;
+            } else if (c == ':') {
+                next = Math.max(SqlScanner.skipParameter(sql, i), i + 1);
+                fingerprint.append(sql, i, next);
+                i = next;
+            } else if (Character.isDigit(c)) {
+                fingerprint.append('?');
+                i = SqlScanner.skipIdentifier(sql, i);
+                while (i < length && sql.charAt(i) == '.' && i + 1 < length && Character.isDigit(sql.charAt(i + 1))) {
+                    i = SqlScanner.skipIdentifier(sql, i + 1);
+                }
+            } else if (SqlScanner.isIdentifierStart(c)) {
+                next = SqlScanner.skipIdentifier(sql, i);
+                for (int j = i; j < next; j++) {
+                    fingerprint.append(Character.toLowerCase(sql.charAt(j)));
+                }
+                i = next;
+            } else {
+                fingerprint.append(c);
+                i++;
+            }
+        }
+        int end = fingerprint.length();
+        while (end > 0 && (fingerprint.charAt(end - 1) == ' ' || fingerprint.charAt(end - 1) == ';')) {
+            end--;
+        }
+        fingerprint.setLength(end);
+        return fingerprint.toString();
+    }
+
+    private static void appendSpace(StringBuilder fingerprint) {
+        if (fingerprint.length() > 0 && fingerprint.charAt(fingerprint.length() - 1) != ' ') {
+            fingerprint.append(' ');
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+/**
+ * Receives timings of every statement run through a {@link SqlExecutorProvider}.
+ * Implementations must be thread safe. When {@link #isEnabled()} returns false
+ * the provider skips timing altogether, so the {@link #NOOP} default costs a
+ * single volatile read per call.
+ */
+public interface SqlMetrics {
+
+    SqlMetrics NOOP = new SqlMetrics() {
+
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void recordExecution(SqlOperation operation, String sql, long durationNanos, long rows,
+                Throwable error) {
+            // disabled
+        }
+
+        @Override
+        public void recordConnectionAcquire(long durationNanos, Throwable error) {
+            // disabled
+        }
+
+    };
+
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Records one execution. {@code rows} is the number of rows read or
+     * affected, 1 for scalar results, and {@code error} is null on success.
+     */
+    void recordExecution(SqlOperation operation, String sql, long durationNanos, long rows, Throwable error);
+
+    void recordConnectionAcquire(long durationNanos, Throwable error);
+
+}
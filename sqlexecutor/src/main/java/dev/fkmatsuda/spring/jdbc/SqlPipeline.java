@@ -0,0 +1,139 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.ConnectionHolder;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import dev.fkmatsuda.spring.jdbc.SqlExecutorProvider.SqlExecutor;
+
+/**
+ * Groups calls on several executors so they run one after another on a single
+ * borrowed connection, paying for connection acquisition once. Results are
+ * available from the handles returned by {@link #add} once
+ * {@link #execute()} completes.
+ * <p>
+ * Each call still makes its own round trip: calls are arbitrary operations on
+ * their executors rather than plain statements, so they are not merged into a
+ * single multi-statement request even where the driver would allow it.
+ */
+public class SqlPipeline {
+
+    private final DataSource dataSource;
+    private final List<Result<?>> results = new ArrayList<>();
+
+    SqlPipeline(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public <T> Result<T> add(SqlExecutor executor, SqlCall<T> call) {
+        Result<T> result = new Result<>(executor, call);
+        results.add(result);
+        return result;
+    }
+
+    public <T> List<Result<T>> addAll(List<SqlExecutor> executors, SqlCall<T> call) {
+        List<Result<T>> added = new ArrayList<>(executors.size());
+        for (SqlExecutor executor : executors) {
+            added.add(add(executor, call));
+        }
+        return added;
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    /**
+     * Runs every queued call in order. When no transaction is active, a
+     * connection is bound to the current thread for the duration of the
+     * pipeline; otherwise the calls simply share the transaction connection.
+     * The first failure stops the pipeline and is rethrown.
+     */
+    public void execute() throws SqlException, InvalidArgumentException {
+        if (TransactionSynchronizationManager.hasResource(dataSource)) {
+            runAll();
+            return;
+        }
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            if (TransactionSynchronizationManager.hasResource(dataSource)) {
+                // bound already by an active transaction synchronization
+                runAll();
+                return;
+            }
+            TransactionSynchronizationManager.bindResource(dataSource, new ConnectionHolder(connection));
+            try {
+                runAll();
+            } finally {
+                TransactionSynchronizationManager.unbindResource(dataSource);
+            }
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    private void runAll() throws SqlException, InvalidArgumentException {
+        for (Result<?> result : results) {
+            result.run();
+        }
+    }
+
+    public static class Result<T> {
+
+        private final SqlExecutor executor;
+        private final SqlCall<T> call;
+        private boolean done = false;
+        private T value = null;
+
+        private Result(SqlExecutor executor, SqlCall<T> call) {
+            this.executor = Objects.requireNonNull(executor);
+            this.call = Objects.requireNonNull(call);
+        }
+
+        private void run() throws SqlException, InvalidArgumentException {
+            value = call.call(executor);
+            done = true;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public T get() {
+            if (!done) {
+                throw new IllegalStateException("Pipeline has not been executed");
+            }
+            return value;
+        }
+
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+/**
+ * Character level helpers shared by the SQL parsers of this package. They know
+ * how to step over string literals, quoted identifiers, comments and
+ * PostgreSQL dollar quoted bodies so callers only see significant text.
+ */
+final class SqlScanner {
+
+    private SqlScanner() {}
+
+    /**
+     * Returns the index just after the literal, quoted identifier or comment
+     * starting at {@code index}, or {@code index} itself when none starts there.
+     * Unterminated constructs extend to the end of the text.
+     */
+    static int skipLiteralOrComment(CharSequence sql, int index) {
+        int length = sql.length();
+        char c = sql.charAt(index);
+        switch (c) {
+        case '\'':
+        case '"':
+        case '`':
+            return skipQuoted(sql, index, c);
+        case '-':
+            if (index + 1 < length && sql.charAt(index + 1) == '-') {
+                int end = index + 2;
+                while (end < length && sql.charAt(end) != '\n') {
+                    end++;
+                }
+                return end;
+            }
+            return index;
+        case '/':
+            if (index + 1 < length && sql.charAt(index + 1) == '*') {
+                int end = index + 2;
+                while (end + 1 < length && !(sql.charAt(end) == '*' && sql.charAt(end + 1) == '/')) {
+                    end++;
+                }
+                return Math.min(end + 2, length);
+            }
+            return index;
+        case '$':
+            return skipDollarQuoted(sql, index);
+        default:
+            return index;
+        }
+    }
+
+    static int skipWhitespaceAndComments(CharSequence sql, int index) {
+        int i = index;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '-' || c == '/') {
+                int next = skipLiteralOrComment(sql, i);
+                if (next == i) {
+                    break;
+                }
+                i = next;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    static int skipIdentifier(CharSequence sql, int index) {
+        int end = index;
+        while (end < sql.length() && isIdentifierPart(sql.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Steps over a named parameter or a {@code ::} cast starting at
+     * {@code index}, returning {@code index} when there is none.
+     */
+    static int skipParameter(CharSequence sql, int index) {
+        if (sql.charAt(index) != ':' || index + 1 >= sql.length()) {
+            return index;
+        }
+        if (sql.charAt(index + 1) == ':') {
+            return index + 2;
+        }
+        return skipIdentifier(sql, index + 1);
+    }
+
+    static boolean regionMatches(CharSequence sql, int index, String keyword) {
+        int end = index + keyword.length();
+        if (end > sql.length()) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (Character.toLowerCase(sql.charAt(index + i)) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return end == sql.length() || !isIdentifierPart(sql.charAt(end));
+    }
+
+    private static int skipQuoted(CharSequence sql, int index, char quote) {
+        int length = sql.length();
+        int end = index + 1;
+        while (end < length) {
+            if (sql.charAt(end) == quote) {
+                if (end + 1 < length && sql.charAt(end + 1) == quote) {
+                    end += 2;
+                    continue;
+                }
+                return end + 1;
+            }
+            end++;
+        }
+        return length;
+    }
+
+    private static int skipDollarQuoted(CharSequence sql, int index) {
+        if (index > 0 && isIdentifierPart(sql.charAt(index - 1))) {
+            return index;
+        }
+        int tagEnd = index + 1;
+        while (tagEnd < sql.length() && sql.charAt(tagEnd) != '$') {
+            char c = sql.charAt(tagEnd);
+            if (!(tagEnd == index + 1 ? isIdentifierStart(c) : Character.isLetterOrDigit(c) || c == '_')) {
+                return index;
+            }
+            tagEnd++;
+        }
+        if (tagEnd >= sql.length()) {
+            return index;
+        }
+        String tag = sql.subSequence(index, tagEnd + 1).toString();
+        for (int end = tagEnd + 1; end + tag.length() <= sql.length(); end++) {
+            if (sql.charAt(end) == '$' && tag.contentEquals(sql.subSequence(end, end + tag.length()))) {
+                return end + tag.length();
+            }
+        }
+        return sql.length();
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DataSourceUtils;
+
+/**
+ * Executes SQL scripts of any size, decoding the file in fixed size chunks and
+ * sending the statements to the database in JDBC batches. Statements that may
+ * return rows, such as {@code SELECT} or {@code CALL}, cannot be batched and
+ * run on their own, in script order, after the pending batch.
+ * <p>
+ * Statements are split as described in {@link SqlStatementSplitter}: nested
+ * block comments and procedural {@code BEGIN ... END} bodies holding
+ * semicolons outside dollar quotes are not split correctly.
+ */
+public class SqlScriptRunner {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Set<String> BATCHABLE = Set.of("insert", "update", "delete", "merge", "create", "alter",
+            "drop", "truncate", "comment", "grant", "revoke");
+
+    private final DataSource dataSource;
+    private final SqlExecutorProvider provider;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private Charset charset = StandardCharsets.UTF_8;
+    private ScriptProgressListener listener = null;
+
+    SqlScriptRunner(SqlExecutorProvider provider, DataSource dataSource) {
+        this.provider = provider;
+        this.dataSource = dataSource;
+    }
+
+    public SqlScriptRunner setBatchSize(int batchSize) throws InvalidArgumentException {
+        if (batchSize < 1) {
+            throw new InvalidArgumentException("Batch size must be greater than zero");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public SqlScriptRunner setCharset(Charset charset) {
+        this.charset = charset;
+        return this;
+    }
+
+    public SqlScriptRunner setProgressListener(ScriptProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Runs every statement of the script in auto commit mode, or on the
+     * connection of the transaction or pipeline of the calling thread when
+     * there is one, and returns the number of statements executed.
+     */
+    public long run(Path script) throws IOException, SqlException {
+        String name = "-- script " + script.getFileName();
+        long start = provider.startTiming();
+        Connection conn = null;
+        try (FileChannel channel = FileChannel.open(script, StandardOpenOption.READ)) {
+            conn = DataSourceUtils.doGetConnection(dataSource);
+            if (!DataSourceUtils.isConnectionTransactional(conn, dataSource)) {
+                conn.setAutoCommit(true);
+            }
+            try (Statement st = conn.createStatement()) {
+                ScriptBatch batch = new ScriptBatch(st, channel.size());
+                SqlStatementSplitter splitter = new SqlStatementSplitter(batch::add);
+                CharsetDecoder decoder = charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT);
+                ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+                boolean endOfInput = false;
+                while (!endOfInput) {
+                    int read = channel.read(bytes);
+                    endOfInput = read < 0;
+                    if (read > 0) {
+                        batch.bytesRead += read;
+                    }
+                    bytes.flip();
+                    decode(decoder, bytes, chars, endOfInput, splitter);
+                    bytes.compact();
+                }
+                decoder.flush(chars);
+                chars.flip();
+                splitter.feed(chars);
+                splitter.finish();
+                batch.flush();
+                provider.recordExecution(SqlOperation.SCRIPT, name, null, start, batch.executed, null);
+                return batch.executed;
+            }
+        } catch (SQLException e) {
+            provider.recordExecution(SqlOperation.SCRIPT, name, null, start, 0, e);
+            throw new SqlException(e);
+        } catch (IOException | RuntimeException e) {
+            provider.recordExecution(SqlOperation.SCRIPT, name, null, start, 0, e);
+            throw e;
+        } finally {
+            DataSourceUtils.releaseConnection(conn, dataSource);
+            provider.clearResultCache();
+        }
+    }
+
+    private static void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars, boolean endOfInput,
+            SqlStatementSplitter splitter) throws SQLException, CharacterCodingException {
+        CoderResult result;
+        do {
+            result = decoder.decode(bytes, chars, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            chars.flip();
+            splitter.feed(chars);
+            chars.clear();
+        } while (result.isOverflow());
+    }
+
+    private static boolean isBatchable(String sql) {
+        int start = SqlScanner.skipWhitespaceAndComments(sql, 0);
+        if (start >= sql.length() || !SqlScanner.isIdentifierStart(sql.charAt(start))) {
+            return false;
+        }
+        return BATCHABLE.contains(sql.substring(start, SqlScanner.skipIdentifier(sql, start)).toLowerCase());
+    }
+
+    private class ScriptBatch {
+
+        private final Statement statement;
+        private final long totalBytes;
+
+        private int pending = 0;
+        private long executed = 0;
+        private long bytesRead = 0;
+
+        ScriptBatch(Statement statement, long totalBytes) {
+            this.statement = statement;
+            this.totalBytes = totalBytes;
+        }
+
+        void add(String sql) throws SQLException {
+            if (!isBatchable(sql)) {
+                flush();
+                statement.execute(sql);
+                executed++;
+                progress();
+                return;
+            }
+            statement.addBatch(sql);
+            pending++;
+            if (pending >= batchSize) {
+                flush();
+            }
+        }
+
+        void flush() throws SQLException {
+            if (pending == 0) {
+                return;
+            }
+            statement.executeBatch();
+            executed += pending;
+            pending = 0;
+            progress();
+        }
+
+        private void progress() {
+            if (Objects.nonNull(listener)) {
+                listener.onProgress(executed, bytesRead, totalBytes);
+            }
+        }
+
+    }
+
+}
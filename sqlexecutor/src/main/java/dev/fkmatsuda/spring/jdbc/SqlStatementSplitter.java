@@ -0,0 +1,193 @@
+/*
+ Copyright (c) 2022 fkmatsuda <fabio@fkmatsuda.dev>
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ the Software, and to permit persons to whom the Software is furnished to do so,
+ subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package dev.fkmatsuda.spring.jdbc;
+
+import java.nio.CharBuffer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental splitter of SQL scripts into statements separated by
+ * semicolons. Text is fed in arbitrary chunks, and semicolons inside string
+ * literals, quoted identifiers, comments and dollar quoted bodies do not end a
+ * statement. Statements holding only whitespace and comments are dropped.
+ * <p>
+ * Block comments end at the first {@code *}{@code /}, so nested comments are
+ * not supported, and the splitter knows nothing of procedural blocks: a
+ * {@code BEGIN ... END} body is split at its inner semicolons unless it is
+ * dollar quoted.
+ */
+final class SqlStatementSplitter {
+
+    interface StatementHandler {
+        void handle(String statement) throws SQLException;
+    }
+
+    private enum State {
+        NORMAL, SINGLE_QUOTE, DOUBLE_QUOTE, BACKTICK, LINE_COMMENT, BLOCK_COMMENT, DOLLAR_TAG, DOLLAR_QUOTE
+    }
+
+    private final StatementHandler handler;
+    private final StringBuilder statement = new StringBuilder();
+    private final StringBuilder tag = new StringBuilder();
+
+    private State state = State.NORMAL;
+    private char previous = 0;
+    private int lastNormal = -1;
+    private int bodyStart = 0;
+
+    SqlStatementSplitter(StatementHandler handler) {
+        this.handler = handler;
+    }
+
+    static List<String> split(String sql) {
+        List<String> statements = new ArrayList<>();
+        SqlStatementSplitter splitter = new SqlStatementSplitter(statements::add);
+        try {
+            splitter.feed(CharBuffer.wrap(sql));
+            splitter.finish();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return statements;
+    }
+
+    void feed(CharBuffer chars) throws SQLException {
+        while (chars.hasRemaining()) {
+            accept(chars.get());
+        }
+    }
+
+    void finish() throws SQLException {
+        state = State.NORMAL;
+        emit();
+    }
+
+    private void accept(char c) throws SQLException {
+        switch (state) {
+        case NORMAL:
+            acceptNormal(c);
+            return;
+        case SINGLE_QUOTE:
+            closeOn(c, '\'');
+            break;
+        case DOUBLE_QUOTE:
+            closeOn(c, '"');
+            break;
+        case BACKTICK:
+            closeOn(c, '`');
+            break;
+        case LINE_COMMENT:
+            closeOn(c, '\n');
+            break;
+        case BLOCK_COMMENT:
+            if (c == '/' && previous == '*') {
+                state = State.NORMAL;
+            }
+            break;
+        case DOLLAR_TAG:
+            if (c == '$') {
+                state = State.DOLLAR_QUOTE;
+                bodyStart = statement.length() + 1;
+            } else if (!(tag.length() == 1 ? SqlScanner.isIdentifierStart(c) : Character.isLetterOrDigit(c) || c == '_')) {
+                state = State.NORMAL;
+                acceptNormal(c);
+                return;
+            }
+            tag.append(c);
+            break;
+        case DOLLAR_QUOTE:
+            if (c == '$' && endsWithTag()) {
+                state = State.NORMAL;
+            }
+            break;
+        default:
+            break;
+        }
+        statement.append(c);
+        previous = state == State.NORMAL ? 0 : c;
+    }
+
+    private void acceptNormal(char c) throws SQLException {
+        if (c == ';') {
+            emit();
+            previous = 0;
+            return;
+        }
+        statement.append(c);
+        previous = c;
+        if (c == '\'') {
+            state = State.SINGLE_QUOTE;
+        } else if (c == '"') {
+            state = State.DOUBLE_QUOTE;
+        } else if (c == '`') {
+            state = State.BACKTICK;
+        } else if (c == '-' && statement.length() > 1 && statement.charAt(statement.length() - 2) == '-'
+                && lastNormal == statement.length() - 2) {
+            state = State.LINE_COMMENT;
+        } else if (c == '*' && statement.length() > 1 && statement.charAt(statement.length() - 2) == '/'
+                && lastNormal == statement.length() - 2) {
+            state = State.BLOCK_COMMENT;
+            previous = 0;
+        } else if (c == '$' && !SqlScanner.isIdentifierPart(charBefore(statement.length() - 1))) {
+            state = State.DOLLAR_TAG;
+            tag.setLength(0);
+            tag.append(c);
+        }
+        lastNormal = statement.length() - 1;
+    }
+
+    private char charBefore(int index) {
+        return index > 0 ? statement.charAt(index - 1) : 0;
+    }
+
+    private void closeOn(char c, char terminator) {
+        if (c == terminator) {
+            state = State.NORMAL;
+        }
+    }
+
+    private boolean endsWithTag() {
+        int length = tag.length() - 1;
+        int start = statement.length() - length;
+        if (start < bodyStart) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (statement.charAt(start + i) != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void emit() throws SQLException {
+        String text = statement.toString().trim();
+        statement.setLength(0);
+        lastNormal = -1;
+        if (SqlScanner.skipWhitespaceAndComments(text, 0) < text.length()) {
+            handler.handle(text);
+        }
+    }
+
+}
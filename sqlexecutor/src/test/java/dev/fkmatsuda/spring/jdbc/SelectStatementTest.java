@@ -0,0 +1,74 @@
+package dev.fkmatsuda.spring.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SelectStatementTest {
+
+    @Test
+    void testSimpleCount() {
+        SelectStatement statement = SelectStatement.parse("select * from test order by id");
+        assertEquals("select count(*) from test", statement.getCountSql());
+        assertEquals("select * from test", statement.getBodySql());
+        assertEquals("select * from test order by id", statement.getUnlimitedSql());
+        assertFalse(statement.isLimited());
+    }
+
+    @Test
+    void testOrderLimitOffset() {
+        SelectStatement statement = SelectStatement.parse(
+                "SELECT id, name\nFROM t WHERE name = 'order by x' ORDER BY id LIMIT 10 OFFSET 5;");
+        assertEquals("SELECT count(*) FROM t WHERE name = 'order by x'", statement.getCountSql());
+        assertEquals("SELECT id, name\nFROM t WHERE name = 'order by x' ORDER BY id", statement.getUnlimitedSql());
+        assertTrue(statement.isLimited());
+        assertFalse(SelectStatement.parse("select a from (select a from t limit 5) x").isLimited());
+    }
+
+    @Test
+    void testWrappedCount() {
+        assertEquals("select count(*) from (select distinct a from t) count_q",
+                SelectStatement.parse("select distinct a from t order by a").getCountSql());
+        assertEquals("select count(*) from (select a, b from t group by a, b having count(*) > 1) count_q",
+                SelectStatement.parse("select a, b from t group by a, b having count(*) > 1").getCountSql());
+        assertEquals("select count(*) from (select max(a) from t) count_q",
+                SelectStatement.parse("select max(a) from t").getCountSql());
+        assertEquals("select count(*) from (select a from t union select a from u) count_q",
+                SelectStatement.parse("select a from t union select a from u order by a limit 3").getCountSql());
+    }
+
+    @Test
+    void testNestedClauses() {
+        assertEquals("select count(*) from (select a from t order by a limit 5) x where a > 1",
+                SelectStatement.parse("select a from (select a from t order by a limit 5) x where a > 1")
+                        .getCountSql());
+        assertEquals("with c as (select id from t order by id) select count(*) from c",
+                SelectStatement.parse("with c as (select id from t order by id) select id from c order by id")
+                        .getCountSql());
+        assertEquals("with c as (select id from t) select count(*) from (select distinct id from c) count_q",
+                SelectStatement.parse("with c as (select id from t) select distinct id from c").getCountSql());
+    }
+
+    @Test
+    void testCommentsAndParameters() {
+        assertEquals("select count(*) from t /* order by */",
+                SelectStatement.parse("select a -- from x\n from t /* order by */ order by a").getCountSql());
+        assertEquals("select count(*) from t where b = :order and c = d::int",
+                SelectStatement.parse("select a from t where b = :order and c = d::int").getCountSql());
+        assertEquals("select count(*) from t",
+                SelectStatement.parse("select $$ from x order by $$ as v from t").getCountSql());
+    }
+
+    @Test
+    void testNotCountable() {
+        SelectStatement statement = SelectStatement.parse("CREATE TABLE test3 (id INTEGER);");
+        assertFalse(statement.isCountable());
+        assertNull(statement.getCountSql());
+        assertNull(SelectStatement.parse("update t set a = 1 where b in (select b from u)").getCountSql());
+        assertNull(SelectStatement.parse("select 1").getCountSql());
+    }
+
+}
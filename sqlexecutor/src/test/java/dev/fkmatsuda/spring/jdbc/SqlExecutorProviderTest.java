@@ -1,5 +1,6 @@
 package dev.fkmatsuda.spring.jdbc;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -7,16 +8,65 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.beans.ConstructorProperties;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import javax.sql.DataSource;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.support.GenericApplicationContext;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
@@ -237,4 +287,1332 @@ class SqlExecutorProviderTest {
 
     }
 
+    @Test()
+    void testBatchUpdate() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test8 (id INTEGER, str text);").executeDDL();
+        SqlExecutor insertQuery = sqlExecutorProvider.forSql("INSERT INTO test8 (id, str) VALUES (:id, :str)")
+                .setBatchSize(1000);
+        for (int i = 0; i < 2500; i++) {
+            insertQuery.setParameter("id", i).setParameter("str", String.format("str: %d", i)).addBatch();
+        }
+        int[][] counts = insertQuery.executeBatch();
+        assertEquals(3, counts.length);
+        assertEquals(1000, counts[0].length);
+        assertEquals(1000, counts[1].length);
+        assertEquals(500, counts[2].length);
+        assertEquals(0, insertQuery.executeBatch().length);
+
+        assertEquals(2500, sqlExecutorProvider.forSql("select * from test8").count().intValue());
+        assertEquals("str: 2499", sqlExecutorProvider.forSql("select str from test8 where id = :id")
+                .setParameter("id", 2499).queryForString());
+
+        SqlExecutor emptyQuery = sqlExecutorProvider.forSql("INSERT INTO test8 (id) VALUES (:id)");
+        assertThrows(RequiredValueException.class, () -> emptyQuery.addBatch());
+        assertThrows(InvalidArgumentException.class, () -> emptyQuery.setBatchSize(0));
+    }
+
+    @Test()
+    void testParsedSqlCache() throws SqlException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test9 (id INTEGER);").executeDDL();
+        SqlCache<?> cache = sqlExecutorProvider.getParsedSqlCache();
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        for (int i = 0; i < 8; i++) {
+            sqlExecutorProvider.forSql("INSERT INTO test9 (id) VALUES (:id)").setParameter("id", i).update();
+        }
+        assertEquals(misses + 1, cache.getMissCount());
+        assertEquals(hits + 7, cache.getHitCount());
+        assertTrue(cache.size() <= cache.getSizeLimit());
+    }
+
+    @Test()
+    void testQueryForStream() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test10 (id INTEGER);").executeDDL();
+        SqlExecutor insertQuery = sqlExecutorProvider.forSql("INSERT INTO test10 (id) VALUES (:id)");
+        for (int i = 0; i < 500; i++) {
+            insertQuery.setParameter("id", i).addBatch();
+        }
+        insertQuery.executeBatch();
+
+        SqlExecutor executor = sqlExecutorProvider.forSql("select id from test10 where id >= :min order by id")
+                .setParameter("min", 100).setFetchSize(50);
+        try (Stream<Long> ids = executor.queryForStream(ResultSetExtractorFactory.longListMapper())) {
+            assertEquals(400, ids.mapToLong(Long::longValue).filter(id -> id >= 100).count());
+        }
+
+        AtomicLong sum = new AtomicLong();
+        executor.forEachRow(rs -> sum.addAndGet(rs.getLong(1)));
+        assertEquals(119800L, sum.get());
+
+        assertThrows(InvalidArgumentException.class, () -> executor.setFetchSize(-1));
+    }
+
+    @Test()
+    void testQueryForPrimitiveArrays() throws SqlException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test11 (id INTEGER, l_value int8, d_value double);").executeDDL();
+        SqlExecutor insertQuery = sqlExecutorProvider.forSql(
+                "INSERT INTO test11 (id, l_value, d_value) VALUES (:id, :l_value, :d_value)");
+        for (int i = 0; i < 200; i++) {
+            insertQuery.setParameter("id", i)
+                    .setParameter("l_value", i % 2 == 0 ? null : (long) i)
+                    .setParameter("d_value", i / 2.0)
+                    .addBatch();
+        }
+        insertQuery.executeBatch();
+
+        int[] ids = sqlExecutorProvider.forSql("select id from test11 order by id").queryForIntArray();
+        assertEquals(200, ids.length);
+        assertEquals(199, ids[199]);
+
+        double[] doubles = sqlExecutorProvider.forSql("select d_value from test11 order by id").queryForDoubleArray();
+        assertEquals(99.5, doubles[199], 0.00001);
+
+        long[] longs = sqlExecutorProvider.forSql("select l_value from test11 where id < 4 order by id")
+                .queryForLongArray();
+        assertArrayEquals(new long[] { 0L, 1L, 0L, 3L }, longs);
+
+        LongColumn column = sqlExecutorProvider.forSql("select l_value from test11 order by id").queryForLongColumn();
+        assertEquals(200, column.size());
+        assertTrue(column.hasNulls());
+        assertTrue(column.isNull(0));
+        assertFalse(column.isNull(1));
+        assertEquals(199L, column.get(199));
+
+        IntColumn empty = sqlExecutorProvider.forSql("select id from test11 where id < 0").queryForIntColumn();
+        assertTrue(empty.isEmpty());
+        assertFalse(empty.hasNulls());
+        assertEquals(0, empty.toArray().length);
+    }
+
+    @Test()
+    void testQueryKeyset() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test12 (grp INTEGER, id INTEGER, str text);").executeDDL();
+        SqlExecutor insertQuery = sqlExecutorProvider.forSql(
+                "INSERT INTO test12 (grp, id, str) VALUES (:grp, :id, :str)");
+        for (int i = 0; i < 95; i++) {
+            insertQuery.setParameter("grp", i % 3).setParameter("id", i)
+                    .setParameter("str", String.format("str: %d", i)).addBatch();
+        }
+        insertQuery.executeBatch();
+
+        SqlExecutor executor = sqlExecutorProvider.forSql("select id, str from test12 where id >= :min order by id")
+                .setParameter("min", 5);
+        List<Long> ids = new ArrayList<>();
+        KeysetToken token = null;
+        int pages = 0;
+        do {
+            KeysetPage<Long> page = executor.queryKeyset(ResultSetExtractorFactory.longListMapper(), token, 20, "id");
+            ids.addAll(page.getContent());
+            token = page.getNextToken();
+            pages++;
+        } while (Objects.nonNull(token));
+        assertEquals(5, pages);
+        assertEquals(90, ids.size());
+        for (int i = 0; i < 90; i++) {
+            assertEquals(i + 5, ids.get(i).intValue());
+        }
+
+        SqlExecutor grouped = sqlExecutorProvider.forSql("select grp, id from test12");
+        KeysetPage<Long> first = grouped.queryKeyset((rs, rowNum) -> rs.getLong("id"), null, 40, "grp", "id");
+        assertTrue(first.hasNext());
+        assertEquals(new KeysetToken(1, 22), first.getNextToken());
+        KeysetPage<Long> last = grouped.queryKeyset((rs, rowNum) -> rs.getLong("id"),
+                new KeysetToken(2, 80), 40, "grp", "id");
+        assertFalse(last.hasNext());
+        assertEquals(List.of(83L, 86L, 89L, 92L), last.getContent());
+
+        assertThrows(InvalidArgumentException.class,
+                () -> grouped.queryKeyset((rs, rowNum) -> rs.getLong("id"), new KeysetToken(1), 10, "grp", "id"));
+
+        KeysetPage<Long> descending = grouped.queryKeyset((rs, rowNum) -> rs.getLong("id"), null, 3, "grp asc",
+                "id DESC");
+        assertEquals(List.of(93L, 90L, 87L), descending.getContent());
+        assertEquals(List.of(84L, 81L, 78L), grouped.queryKeyset((rs, rowNum) -> rs.getLong("id"),
+                descending.getNextToken(), 3, "grp asc", "id DESC").getContent());
+        assertEquals(List.of(93L), grouped.queryKeyset((rs, rowNum) -> rs.getLong("id"), new KeysetToken(1, 0), 1,
+                "grp desc", "id desc").getContent());
+        assertThrows(InvalidArgumentException.class, () -> sqlExecutorProvider
+                .forSql("select id from test12 order by id limit 10")
+                .queryKeyset(ResultSetExtractorFactory.longListMapper(), null, 5, "id"));
+    }
+
+    @Test()
+    void testCountGroupedQuery() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test13 (grp INTEGER, id INTEGER);").executeDDL();
+        SqlExecutor insertQuery = sqlExecutorProvider.forSql("INSERT INTO test13 (grp, id) VALUES (:grp, :id)");
+        for (int i = 0; i < 30; i++) {
+            insertQuery.setParameter("grp", i % 4).setParameter("id", i).addBatch();
+        }
+        insertQuery.executeBatch();
+
+        assertEquals(4L, sqlExecutorProvider.forSql("select grp, count(*) from test13 group by grp order by grp")
+                .count());
+        assertEquals(4L, sqlExecutorProvider.forSql("select distinct grp from test13").count());
+        assertEquals(28L, sqlExecutorProvider.forSql(
+                "select id from test13 where id > :min order by id limit 5 offset 2")
+                .setParameter("min", 1).count());
+        assertEquals(30L, sqlExecutorProvider.forSql(
+                "with g as (select * from test13) select id from g where grp in (select grp from test13)")
+                .count());
+        long hits = sqlExecutorProvider.getCountSqlCache().getHitCount();
+        sqlExecutorProvider.forSql("select distinct grp from test13").count();
+        assertEquals(hits + 1, sqlExecutorProvider.getCountSqlCache().getHitCount());
+    }
+
+    @Test()
+    void testQueryPage() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test14 (id INTEGER, str text);").executeDDL();
+        SqlExecutor insertQuery = sqlExecutorProvider.forSql("INSERT INTO test14 (id, str) VALUES (:id, :str)");
+        for (int i = 0; i < 45; i++) {
+            insertQuery.setParameter("id", i).setParameter("str", String.format("str: %d", i)).addBatch();
+        }
+        insertQuery.executeBatch();
+
+        SqlExecutor executor = sqlExecutorProvider.forSql("select id from test14 where id >= :min order by id desc")
+                .setParameter("min", 5);
+        QueryPage<Long> page = executor.queryPage(ResultSetExtractorFactory.longListMapper(), 10, 15);
+        assertEquals(40L, page.getTotal());
+        assertEquals(3L, page.getTotalPages());
+        assertTrue(page.hasNext());
+        assertEquals(15, page.getContent().size());
+        assertEquals(34L, page.getContent().get(0).longValue());
+
+        QueryPage<Long> last = executor.queryPage(ResultSetExtractorFactory.longListMapper(), 30, 15);
+        assertFalse(last.hasNext());
+        assertEquals(10, last.getContent().size());
+        assertEquals(5L, last.getContent().get(9).longValue());
+
+        assertThrows(InvalidArgumentException.class,
+                () -> sqlExecutorProvider.forSql("DELETE FROM test14").queryPage(
+                        ResultSetExtractorFactory.longListMapper(), 0, 10));
+        assertThrows(InvalidArgumentException.class,
+                () -> sqlExecutorProvider.forSql("select id from test14 where id < :page_limit")
+                        .setParameter("page_limit", 3).queryPage(ResultSetExtractorFactory.longListMapper(), 0, 10));
+    }
+
+    @Test()
+    void testResultCache() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test15 (id INTEGER, str text);").executeDDL();
+        sqlExecutorProvider.forSql("INSERT INTO test15 (id, str) VALUES (:id, :str)")
+                .setParameter("id", 1).setParameter("str", "first").update();
+
+        QueryResultCache cache = new QueryResultCache(2, Duration.ofMinutes(1));
+        sqlExecutorProvider.setResultCache(cache);
+        try {
+            SqlExecutor executor = sqlExecutorProvider.forSql("select str from test15 where id = :id")
+                    .cacheable("PUBLIC.TEST15").setParameter("id", 1);
+            assertEquals("first", executor.queryForString());
+            assertEquals("first", executor.queryForString());
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+            assertEquals(0.5, cache.getHitRate(), 0.00001);
+
+            sqlExecutorProvider.forSql("UPDATE test15 SET str = :str WHERE id = :id")
+                    .setParameter("id", 1).setParameter("str", "second").update();
+            assertEquals(1, cache.getInvalidationCount());
+            assertEquals("second", executor.queryForString());
+
+            assertNull(executor.setParameter("id", 2).queryForString());
+            assertNull(executor.setParameter("id", 2).queryForString());
+            assertEquals(2, cache.getHitCount());
+            executor.setParameter("id", 3).queryForString();
+            assertTrue(cache.size() <= 2);
+            assertTrue(cache.getEvictionCount() > 0);
+
+            sqlExecutorProvider.forSql("select str from test15 where id = 1").queryForString();
+            assertEquals(4, cache.getMissCount());
+        } finally {
+            sqlExecutorProvider.setResultCache(null);
+        }
+        assertThrows(InvalidArgumentException.class, () -> new QueryResultCache(0, Duration.ofSeconds(1)));
+    }
+
+    @Test
+    void testResultCacheInvalidationDuringLoad() throws Exception {
+        QueryResultCache cache = new QueryResultCache(4, Duration.ofMinutes(1));
+        String[] tables = { "test15" };
+        Map<String, Object> parameters = Map.of("id", 1);
+        assertEquals(1, (int) cache.get("select", "int", parameters, tables, () -> {
+            cache.invalidateTable("test15");
+            return 1;
+        }));
+        assertEquals(0, cache.size());
+        assertEquals(2, (int) cache.get("select", "int", parameters, tables, () -> 2));
+        assertEquals(2, (int) cache.get("select", "int", parameters, tables, () -> 3));
+
+        AtomicInteger table = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                readers.add(executor.submit(() -> {
+                    for (int j = 0; j < 2000; j++) {
+                        cache.get("select", "int", parameters, tables, table::get);
+                    }
+                }));
+            }
+            for (int i = 0; i < 500; i++) {
+                table.incrementAndGet();
+                cache.invalidateTable("test15");
+            }
+            for (Future<?> reader : readers) {
+                reader.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(table.get(), (int) cache.get("select", "int", parameters, tables, () -> -1));
+
+        for (int i = 0; i < 100; i++) {
+            cache.get("select " + i, "int", parameters, tables, () -> 0);
+            cache.get("select 0", "int", parameters, tables, () -> 0);
+        }
+        assertEquals(4, cache.size());
+        long misses = cache.getMissCount();
+        cache.get("select 0", "int", parameters, tables, () -> 0);
+        assertEquals(misses, cache.getMissCount());
+    }
+
+    @Test()
+    void testRunScript(@TempDir Path tempDir) throws SqlException, InvalidArgumentException, IOException {
+        assertNotNull(sqlExecutorProvider);
+        StringBuilder script = new StringBuilder("create table test16 (id integer, str text);\n");
+        for (int i = 0; i < 250; i++) {
+            script.append("-- row ").append(i).append(";\n")
+                    .append("insert into test16 (id, str) values (").append(i).append(", 'str; ").append(i)
+                    .append("');\n");
+        }
+        Path file = tempDir.resolve("script.sql");
+        Files.write(file, script.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<Long> progress = new ArrayList<>();
+        long executed = sqlExecutorProvider.scriptRunner()
+                .setBatchSize(100)
+                .setProgressListener((statements, bytesRead, totalBytes) -> {
+                    assertTrue(bytesRead <= totalBytes);
+                    progress.add(statements);
+                })
+                .run(file);
+        assertEquals(251L, executed);
+        assertEquals(List.of(100L, 200L, 251L), progress);
+        assertEquals(250L, sqlExecutorProvider.forSql("select * from test16").count());
+        assertEquals("str; 42", sqlExecutorProvider.forSql("select str from test16 where id = 42").queryForString());
+
+        Files.writeString(file, "insert into test16 (id, str) values (250, 'a');\n"
+                + "select count(*) from test16;\n"
+                + "/* check */ values (1);\n"
+                + "delete from test16 where id >= 250;\n");
+        List<Long> direct = new ArrayList<>();
+        assertEquals(4L, sqlExecutorProvider.scriptRunner()
+                .setProgressListener((statements, bytesRead, totalBytes) -> direct.add(statements))
+                .run(file));
+        assertEquals(List.of(1L, 2L, 3L, 4L), direct);
+        assertEquals(250L, sqlExecutorProvider.forSql("select * from test16").count());
+
+        InMemorySqlMetrics metrics = new InMemorySqlMetrics();
+        sqlExecutorProvider.setMetrics(metrics);
+        try {
+            SqlPipeline pipeline = sqlExecutorProvider.pipeline();
+            SqlPipeline.Result<Long> before = pipeline.add(sqlExecutorProvider.forSql("select count(*) from test16"),
+                    SqlExecutor::queryForLong);
+            SqlPipeline.Result<Long> scripted = pipeline.add(sqlExecutorProvider.forSql("select 1 from test16"),
+                    executor -> {
+                        try {
+                            return sqlExecutorProvider.scriptRunner().run(file);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+            pipeline.execute();
+            assertEquals(250L, before.get());
+            assertEquals(4L, scripted.get());
+            assertEquals(1, metrics.getConnectionAcquireStatistics().getCount());
+        } finally {
+            sqlExecutorProvider.setMetrics(null);
+        }
+    }
+
+    @Test()
+    void testMetrics() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        InMemorySqlMetrics metrics = new InMemorySqlMetrics();
+        sqlExecutorProvider.setMetrics(metrics);
+        try {
+            sqlExecutorProvider.forSql("CREATE TABLE test17 (id INTEGER, str text);").executeDDL();
+            SqlExecutor insertQuery = sqlExecutorProvider.forSql("INSERT INTO test17 (id, str) VALUES (:id, :str)");
+            for (int i = 0; i < 10; i++) {
+                insertQuery.setParameter("id", i).setParameter("str", String.format("str: %d", i)).update();
+            }
+            for (int i = 10; i < 30; i++) {
+                insertQuery.setParameter("id", i).setParameter("str", String.format("str: %d", i)).addBatch();
+            }
+            insertQuery.executeBatch();
+            sqlExecutorProvider.forSql("select id from test17 where id < 5").queryForLongList();
+            sqlExecutorProvider.forSql("SELECT id FROM test17 WHERE id < 20").queryForLongList();
+            sqlExecutorProvider.forSql("select id from test17 where id < 5").count();
+            try (Stream<Long> ids = sqlExecutorProvider.forSql("select id from test17")
+                    .queryForStream(ResultSetExtractorFactory.longListMapper())) {
+                assertEquals(30, ids.count());
+            }
+            assertThrows(RuntimeException.class,
+                    () -> sqlExecutorProvider.forSql("select missing from test17").queryForLongList());
+
+            SqlStatistics updates = metrics.getStatistics(SqlOperation.UPDATE,
+                    "INSERT INTO test17 (id, str) VALUES (:id, :str)");
+            assertEquals(10, updates.getCount());
+            assertEquals(10, updates.getRowCount());
+            assertTrue(updates.getMaxTime(TimeUnit.NANOSECONDS) >= updates.getMeanTime(TimeUnit.NANOSECONDS));
+            assertTrue(updates.getPercentile(0.99, TimeUnit.NANOSECONDS) > 0);
+            assertEquals(20, metrics.getStatistics(SqlOperation.BATCH,
+                    "INSERT INTO test17 (id, str) VALUES (:id, :str)").getRowCount());
+
+            SqlStatistics queries = metrics.getStatistics(SqlOperation.QUERY, "select id from test17 where id < 1");
+            assertEquals(2, queries.getCount());
+            assertEquals(25, queries.getRowCount());
+            assertEquals(1, metrics.getStatistics(SqlOperation.COUNT, "select count(*) from test17 where id < 5")
+                    .getCount());
+            assertEquals(30, metrics.getStatistics(SqlOperation.STREAM, "select id from test17").getRowCount());
+            assertEquals(1, metrics.getStatistics(SqlOperation.QUERY, "select missing from test17").getErrorCount());
+            assertEquals(1, metrics.getStatistics(SqlOperation.DDL).size());
+            assertTrue(metrics.getConnectionAcquireStatistics().getCount() >= 17);
+        } finally {
+            sqlExecutorProvider.setMetrics(null);
+        }
+        assertEquals(SqlMetrics.NOOP, sqlExecutorProvider.getMetrics());
+        assertEquals("select a from t where b = ? and c = :c and d in (?, ?)",
+                SqlFingerprint.of("SELECT a\n  FROM t -- comment\n WHERE b = 'x' AND c = :c AND d IN (1, 2.5);"));
+    }
+
+    @Test
+    void testSlowQueryLog() throws SqlException, InvalidArgumentException, IOException {
+        assertNotNull(sqlExecutorProvider);
+        assertThrows(InvalidArgumentException.class, () -> new SlowQueryLog(0, Duration.ZERO));
+        SlowQueryLog slowQueryLog = new SlowQueryLog(4, Duration.ZERO)
+                .setParameterRedactor(ParameterRedactor.names("secret"));
+        sqlExecutorProvider.setSlowQueryLog(slowQueryLog);
+        try {
+            sqlExecutorProvider.forSql("CREATE TABLE test18 (id INTEGER, secret text);").executeDDL();
+            SqlExecutor insertQuery = sqlExecutorProvider.forSql("INSERT INTO test18 (id, secret) VALUES (:id, :secret)");
+            for (int i = 0; i < 5; i++) {
+                insertQuery.setParameter("id", i).setParameter("secret", String.format("pwd: %d", i)).update();
+            }
+            assertEquals(3, sqlExecutorProvider.forSql("select id from test18 where id < :max")
+                    .setParameter("max", 3).queryForLongList().size());
+
+            List<SlowQuery> entries = slowQueryLog.snapshot();
+            assertEquals(7, slowQueryLog.getRecordedCount());
+            assertEquals(4, entries.size());
+            assertEquals(3, entries.get(0).getSequence());
+            SlowQuery update = entries.get(2);
+            assertEquals(SqlOperation.UPDATE, update.getOperation());
+            assertEquals(4, update.getParameters().get("id"));
+            assertEquals(ParameterRedactor.REDACTED, update.getParameters().get("secret"));
+            assertEquals(1, update.getRows());
+            assertFalse(update.isSampled());
+            assertNotNull(update.getOrigin());
+            assertEquals(SqlExecutorProviderTest.class.getName(), update.getOrigin().getClassName());
+            SlowQuery query = entries.get(3);
+            assertEquals(SqlOperation.QUERY, query.getOperation());
+            assertEquals(3, query.getRows());
+
+            StringBuilder dump = new StringBuilder();
+            slowQueryLog.dump(dump);
+            assertTrue(dump.toString().contains("select id from test18 where id < :max"));
+            assertFalse(dump.toString().contains("pwd: 4"));
+            slowQueryLog.clear();
+            assertTrue(slowQueryLog.snapshot().isEmpty());
+
+            ParameterRedactor duplicates = ParameterRedactor.names("secret", "SECRET", "secret");
+            assertEquals(ParameterRedactor.REDACTED, duplicates.redact("Secret", "pwd"));
+            assertEquals("1", duplicates.redact("id", "1"));
+        } finally {
+            sqlExecutorProvider.setSlowQueryLog(null);
+        }
+    }
+
+    @Test
+    void testAsyncQueries() throws Exception {
+        assertNotNull(sqlExecutorProvider);
+        assertEquals(SqlExecutorProvider.DEFAULT_ASYNC_CONCURRENCY, sqlExecutorProvider.getAsyncConcurrency());
+        assertThrows(InvalidArgumentException.class, () -> sqlExecutorProvider.setAsyncConcurrency(-1));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        sqlExecutorProvider.setAsyncExecutor(executor);
+        sqlExecutorProvider.setAsyncConcurrency(2);
+        try {
+            sqlExecutorProvider.forSql("CREATE TABLE test19 (id INTEGER, str text);").executeDDL();
+            SqlExecutor insertQuery = sqlExecutorProvider.forSql("INSERT INTO test19 (id, str) VALUES (:id, :str)");
+            List<CompletableFuture<Void>> inserts = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                inserts.add(insertQuery.setParameter("id", i).setParameter("str", String.format("str: %d", i))
+                        .updateAsync());
+            }
+            CompletableFuture.allOf(inserts.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+            SqlExecutor byId = sqlExecutorProvider.forSql("select str from test19 where id = :id");
+            List<CompletableFuture<String>> lookups = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                lookups.add(byId.setParameter("id", i).queryAsync(rs -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(5);
+                        return rs.next() ? rs.getString(1) : null;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException(e);
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }));
+            }
+            CompletableFuture<Long> count = sqlExecutorProvider.forSql("select id from test19").countAsync();
+            CompletableFuture<List<Long>> ids = sqlExecutorProvider.forSql("select id from test19 order by id")
+                    .queryForLongListAsync();
+            for (int i = 0; i < 20; i++) {
+                assertEquals(String.format("str: %d", i), lookups.get(i).get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(20L, count.get(10, TimeUnit.SECONDS));
+            assertEquals(20, ids.get(10, TimeUnit.SECONDS).size());
+            assertTrue(maxRunning.get() <= 2);
+
+            ExecutionException failure = assertThrows(ExecutionException.class,
+                    () -> sqlExecutorProvider.forSql("select missing from test19").queryForLongAsync()
+                            .get(10, TimeUnit.SECONDS));
+            assertTrue(failure.getCause() instanceof RuntimeException);
+        } finally {
+            sqlExecutorProvider.setAsyncExecutor(null);
+            sqlExecutorProvider.setAsyncConcurrency(0);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testBoundedExecutorRejection() throws Exception {
+        BoundedExecutor rejecting = new BoundedExecutor(task -> {
+            throw new RejectedExecutionException("shut down");
+        }, 1);
+        assertThrows(RejectedExecutionException.class, () -> rejecting.execute(() -> { }));
+        assertEquals(1, rejecting.getQueuedCount());
+        assertEquals(0, rejecting.getActiveCount());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicInteger accepted = new AtomicInteger();
+        BoundedExecutor bounded = new BoundedExecutor(task -> {
+            if (accepted.getAndIncrement() > 0) {
+                throw new RejectedExecutionException("shut down");
+            }
+            executor.execute(task);
+        }, 1);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Void> first = new CompletableFuture<>();
+            CompletableFuture<Void> second = new CompletableFuture<>();
+            bounded.execute(() -> {
+                try {
+                    release.await();
+                    first.complete(null);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, first::completeExceptionally);
+            bounded.execute(() -> second.complete(null), second::completeExceptionally);
+            assertEquals(1, bounded.getQueuedCount());
+            release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            ExecutionException failure = assertThrows(ExecutionException.class,
+                    () -> second.get(10, TimeUnit.SECONDS));
+            assertTrue(failure.getCause() instanceof RejectedExecutionException);
+            assertEquals(0, bounded.getQueuedCount());
+        } finally {
+            executor.shutdown();
+        }
+
+        sqlExecutorProvider.setAsyncExecutor(task -> {
+            throw new RejectedExecutionException("shut down");
+        });
+        try {
+            ExecutionException failure = assertThrows(ExecutionException.class,
+                    () -> sqlExecutorProvider.forSql("select 1 from (values(0))").queryForLongAsync()
+                            .get(10, TimeUnit.SECONDS));
+            assertTrue(failure.getCause() instanceof RejectedExecutionException);
+        } finally {
+            sqlExecutorProvider.setAsyncExecutor(null);
+        }
+    }
+
+    @Test
+    void testPipeline()throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test20 (id INTEGER, amount DECIMAL(10, 2), active BOOLEAN);")
+                .executeDDL();
+        SqlExecutor insertQuery = sqlExecutorProvider
+                .forSql("INSERT INTO test20 (id, amount, active) VALUES (:id, :amount, :active)");
+        for (int i = 0; i < 10; i++) {
+            insertQuery.setParameter("id", i).setParameter("amount", new BigDecimal(i).add(new BigDecimal("0.5")))
+                    .setParameter("active", i % 2 == 0).addBatch();
+        }
+        insertQuery.executeBatch();
+
+        InMemorySqlMetrics metrics = new InMemorySqlMetrics();
+        sqlExecutorProvider.setMetrics(metrics);
+        try {
+            SqlPipeline pipeline = sqlExecutorProvider.pipeline();
+            SqlPipeline.Result<Integer> count = pipeline.add(
+                    sqlExecutorProvider.forSql("select count(*) from test20"), SqlExecutor::queryForInt);
+            SqlPipeline.Result<BigDecimal> total = pipeline.add(
+                    sqlExecutorProvider.forSql("select sum(amount) from test20"), SqlExecutor::queryForBigDecimal);
+            SqlPipeline.Result<Boolean> active = pipeline.add(
+                    sqlExecutorProvider.forSql("select active from test20 where id = :id").setParameter("id", 3),
+                    SqlExecutor::queryForBoolean);
+            List<SqlPipeline.Result<Long>> ids = pipeline.addAll(List.of(
+                    sqlExecutorProvider.forSql("select max(id) from test20"),
+                    sqlExecutorProvider.forSql("select min(id) from test20")), SqlExecutor::queryForLong);
+            SqlPipeline.Result<Integer> created = pipeline.add(
+                    sqlExecutorProvider.forSql("CREATE TABLE test20_log (id INTEGER);"), executor -> {
+                        executor.executeDDL();
+                        return 0;
+                    });
+            assertThrows(IllegalStateException.class, count::get);
+            pipeline.execute();
+
+            assertEquals(10, count.get());
+            assertEquals(0, new BigDecimal("50.00").compareTo(total.get()));
+            assertFalse(active.get());
+            assertEquals(9L, ids.get(0).get());
+            assertEquals(0L, ids.get(1).get());
+            assertTrue(created.isDone());
+            assertEquals(6, pipeline.size());
+            assertEquals(1, metrics.getConnectionAcquireStatistics().getCount());
+        } finally {
+            sqlExecutorProvider.setMetrics(null);
+        }
+    }
+
+    @Test
+    void testBulkLoad(@TempDir Path tempDir) throws SqlException, InvalidArgumentException, IOException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test21 (id INTEGER, str text, amount DECIMAL(10, 2));").executeDDL();
+        String insertSql = "INSERT INTO test21 (id, str, amount) VALUES (:id, :str, :amount)";
+
+        Path csv = tempDir.resolve("test21.csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            writer.write("id,description,amount\r\n");
+            for (int i = 0; i < 2500; i++) {
+                writer.write(String.format("%d,\"str, \"\"%d\"\"\nline\",%d.25\r\n", i, i, i));
+            }
+        }
+        List<Long> progress = new ArrayList<>();
+        BulkLoadResult result = sqlExecutorProvider.bulkLoader(insertSql)
+                .mapColumn("description", "str")
+                .setParameterType("id", Types.INTEGER)
+                .setParameterType("amount", Types.DECIMAL)
+                .setBatchSize(300)
+                .setCommitInterval(1000)
+                .setParallelism(3)
+                .setProgressListener((rows, transactions, rowsPerSecond) -> {
+                    synchronized (progress) {
+                        progress.add(rows);
+                    }
+                })
+                .load(csv);
+        assertEquals(2500, result.getRows());
+        assertEquals(3, result.getTransactions());
+        assertTrue(result.getRowsPerSecond() > 0);
+        assertEquals(3, progress.size());
+        assertEquals(2500L, progress.stream().mapToLong(Long::longValue).max().getAsLong());
+        assertEquals(2500L, sqlExecutorProvider.forSql("select count(*) from test21").queryForLong());
+        assertEquals("str, \"42\"\nline",
+                sqlExecutorProvider.forSql("select str from test21 where id = 42").queryForString());
+        assertEquals(0, new BigDecimal("42.25").compareTo(
+                sqlExecutorProvider.forSql("select amount from test21 where id = 42").queryForBigDecimal()));
+
+        Path ndjson = tempDir.resolve("test21.ndjson");
+        Files.write(ndjson, List.of(
+                "{\"id\": 5000, \"str\": \"caf\\u00e9\", \"amount\": 1.5}",
+                "",
+                "{\"id\": 5001, \"str\": null, \"amount\": 2}"), StandardCharsets.UTF_8);
+        result = sqlExecutorProvider.bulkLoader(insertSql).setFormat(DataFormat.NDJSON).load(ndjson);
+        assertEquals(2, result.getRows());
+        assertEquals("caf\u00e9", sqlExecutorProvider.forSql("select str from test21 where id = 5000").queryForString());
+        assertNull(sqlExecutorProvider.forSql("select str from test21 where id = 5001").queryForString());
+
+        Path invalid = tempDir.resolve("invalid.csv");
+        Files.write(invalid, List.of("id,str,amount", "1,a,1", "2,b"), StandardCharsets.UTF_8);
+        assertThrows(InvalidArgumentException.class, () -> sqlExecutorProvider.bulkLoader(insertSql).load(invalid));
+        Files.write(invalid, List.of("id,str,amount", "x,a,1"), StandardCharsets.UTF_8);
+        assertThrows(SqlException.class, () -> sqlExecutorProvider.bulkLoader(insertSql)
+                .setParameterType("id", Types.INTEGER).load(invalid));
+        assertEquals(2502L, sqlExecutorProvider.forSql("select count(*) from test21").queryForLong());
+    }
+
+    @Test
+    void testPartitionedScan() throws SqlException, InvalidArgumentException, InterruptedException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test22 (id INTEGER, str text);").executeDDL();
+        SqlExecutor insertQuery = sqlExecutorProvider.forSql("INSERT INTO test22 (id, str) VALUES (:id, :str)");
+        for (int i = 0; i < 1000; i++) {
+            insertQuery.setParameter("id", i).setParameter("str", i % 3 == 0 ? "skip" : "keep").addBatch();
+        }
+        insertQuery.executeBatch();
+        SqlExecutor query = sqlExecutorProvider.forSql("select id from test22 where str = :str order by id desc")
+                .setParameter("str", "keep");
+        assertThrows(InvalidArgumentException.class, () -> query.partitionedScan("id", 10, 0));
+        assertThrows(InvalidArgumentException.class, () -> sqlExecutorProvider
+                .forSql("select id from test22 order by id limit 10").partitionedScan("id", 0, 1000));
+        assertThrows(InvalidArgumentException.class, () -> sqlExecutorProvider
+                .forSql("select id from test22 where id < :partition_to").setParameter("partition_to", 10)
+                .partitionedScan("id", 0, 1000));
+
+        List<Long> ordered;
+        try (Stream<Long> rows = query.partitionedScan("id", 0, 1000).setPartitions(7).setParallelism(3)
+                .setQueueSize(10).setOrdered(true).stream(ResultSetExtractorFactory.longListMapper())) {
+            ordered = rows.collect(Collectors.toList());
+        }
+        assertEquals(666, ordered.size());
+        for (int i = 1; i < ordered.size(); i++) {
+            assertTrue(ordered.get(i - 1) < ordered.get(i));
+        }
+
+        List<Long> unordered = new ArrayList<>();
+        query.partitionedScan("id", 0, 500).setPartitions(4).forEach(ResultSetExtractorFactory.longListMapper(),
+                unordered::add);
+        assertEquals(333, unordered.size());
+        assertEquals(333, unordered.stream().distinct().count());
+
+        try (Stream<Long> rows = query.partitionedScan("id", 0, 1000).setPartitions(5).setQueueSize(1)
+                .setOrdered(true).stream(ResultSetExtractorFactory.longListMapper())) {
+            assertEquals(List.of(1L, 2L, 4L), rows.limit(3).collect(Collectors.toList()));
+        }
+        assertThrows(RuntimeException.class, () -> sqlExecutorProvider.forSql("select id from test22")
+                .partitionedScan("missing", 0, 10).forEach(ResultSetExtractorFactory.longListMapper(), id -> {
+                }));
+
+        assertThrows(InvalidArgumentException.class,
+                () -> query.partitionedScan("id", 0, 1000).setIdleTimeout(Duration.ZERO));
+        Iterator<Long> abandoned = query.partitionedScan("id", 0, 1000).setPartitions(2).setQueueSize(1)
+                .setIdleTimeout(Duration.ofMillis(200)).stream(ResultSetExtractorFactory.longListMapper())
+                .iterator();
+        assertTrue(abandoned.hasNext());
+        abandoned.next();
+        Thread.sleep(1000);
+        assertThrows(IllegalStateException.class, () -> {
+            while (abandoned.hasNext()) {
+                abandoned.next();
+            }
+        });
+
+        // the consumer waits on the slow first partition longer than the idle timeout
+        try (Stream<Long> rows = query.partitionedScan("id", 0, 1000).setPartitions(2).setParallelism(2)
+                .setQueueSize(1).setOrdered(true).setIdleTimeout(Duration.ofMillis(200))
+                .stream((rs, rowNum) -> {
+                    long id = rs.getLong(1);
+                    if (id == 1) {
+                        try {
+                            Thread.sleep(1000);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return id;
+                })) {
+            assertEquals(666, rows.count());
+        }
+    }
+
+    @Test
+    void testExport(@TempDir Path tempDir) throws SqlException, InvalidArgumentException, IOException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test23 (id INTEGER, str text, amount DECIMAL(10, 2), active BOOLEAN);")
+                .executeDDL();
+        SqlExecutor insertQuery = sqlExecutorProvider
+                .forSql("INSERT INTO test23 (id, str, amount, active) VALUES (:id, :str, :amount, :active)");
+        for (int i = 0; i < 100; i++) {
+            insertQuery.setParameter("id", i)
+                    .setParameter("str", i == 0 ? null : i == 1 ? "" : String.format("say \"%d\",\n\tok", i))
+                    .setParameter("amount", new BigDecimal(i).add(new BigDecimal("0.75")))
+                    .setParameter("active", i % 2 == 0).addBatch();
+        }
+        insertQuery.executeBatch();
+        SqlExecutor query = sqlExecutorProvider.forSql("select id, str, amount, active from test23 order by id")
+                .setFetchSize(10);
+
+        Path csv = tempDir.resolve("test23.csv");
+        assertEquals(100, query.exportTo(csv, DataFormat.CSV));
+        List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        assertEquals("ID,STR,AMOUNT,ACTIVE", lines.get(0));
+        assertEquals("0,,0.75,TRUE", lines.get(1));
+        assertEquals("1,\"\",1.75,FALSE", lines.get(2));
+        assertEquals("2,\"say \"\"2\"\",", lines.get(3));
+
+        sqlExecutorProvider
+                .forSql("CREATE TABLE test23_copy (id INTEGER, str text, amount DECIMAL(10, 2), active BOOLEAN);")
+                .executeDDL();
+        assertEquals(100, sqlExecutorProvider
+                .bulkLoader("INSERT INTO test23_copy (id, str, amount, active) VALUES (:ID, :STR, :AMOUNT, :ACTIVE)")
+                .setParameterType("ID", Types.INTEGER).setParameterType("AMOUNT", Types.DECIMAL)
+                .setParameterType("ACTIVE", Types.BOOLEAN).load(csv).getRows());
+        assertEquals(0L, sqlExecutorProvider.forSql("select count(*) from test23 t join test23_copy c on c.id = t.id "
+                + "where c.str is distinct from t.str or c.amount <> t.amount or c.active <> t.active").queryForLong());
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(100, query.exportTo(output, DataFormat.NDJSON, true));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(output.toByteArray())), StandardCharsets.UTF_8))) {
+            assertEquals("{\"ID\":0,\"STR\":null,\"AMOUNT\":0.75,\"ACTIVE\":true}", reader.readLine());
+            reader.readLine();
+            assertEquals("{\"ID\":2,\"STR\":\"say \\\"2\\\",\\n\\tok\",\"AMOUNT\":2.75,\"ACTIVE\":true}",
+                    reader.readLine());
+            assertEquals(97, reader.lines().count());
+        }
+
+        for (String number : List.of("0", "-12", "3.25", "1E+10", "-0.5e-3")) {
+            assertTrue(ResultSetExporter.isJsonNumber(number), number);
+        }
+        for (String other : List.of("NaN", "Infinity", "-Infinity", "-", ".5", "1.", "01", "1e", "")) {
+            assertFalse(ResultSetExporter.isJsonNumber(other), other);
+        }
+        output.reset();
+        sqlExecutorProvider.forSql("select cast('-Infinity' as double) as d, cast(1.5 as double) as e from test23 "
+                + "where id = 0").exportTo(output, DataFormat.NDJSON);
+        assertEquals("{\"D\":\"-1E0/0\",\"E\":1.5E0}\n", output.toString(StandardCharsets.UTF_8));
+    }
+
+    public static class Item {
+
+        private long id;
+        private String name;
+        private BigDecimal unitPrice;
+        private LocalDate createdOn;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public BigDecimal getUnitPrice() {
+            return unitPrice;
+        }
+
+        public void setUnitPrice(BigDecimal unitPrice) {
+            this.unitPrice = unitPrice;
+        }
+
+        public LocalDate getCreatedOn() {
+            return createdOn;
+        }
+
+        public void setCreatedOn(LocalDate createdOn) {
+            this.createdOn = createdOn;
+        }
+
+    }
+
+    public static class ItemView {
+
+        private final int id;
+        private final String name;
+        private final Long quantity;
+
+        @ConstructorProperties({ "id", "name", "quantity" })
+        public ItemView(int id, String name, Long quantity) {
+            this.id = id;
+            this.name = name;
+            this.quantity = quantity;
+        }
+
+    }
+
+    @Test
+    void testCompiledRowMapper() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test24 (id INTEGER, name text, unit_price DECIMAL(10, 2), "
+                + "created_on DATE, quantity BIGINT);").executeDDL();
+        SqlExecutor insertQuery = sqlExecutorProvider.forSql("INSERT INTO test24 (id, name, unit_price, created_on, "
+                + "quantity) VALUES (:id, :name, :price, :created, :quantity)");
+        for (int i = 0; i < 10; i++) {
+            insertQuery.setParameter("id", i).setParameter("name", String.format("item %d", i))
+                    .setParameter("price", new BigDecimal(i).add(new BigDecimal("0.5")))
+                    .setParameter("created", java.sql.Date.valueOf(LocalDate.of(2022, 1, i + 1)))
+                    .setParameter("quantity", i % 2 == 0 ? null : (long) i).addBatch();
+        }
+        insertQuery.executeBatch();
+
+        SqlExecutor query = sqlExecutorProvider.forSql("select * from test24 where id < :max order by id");
+        List<Item> items = query.setParameter("max", 5).queryForObjects(Item.class);
+        assertEquals(5, items.size());
+        assertEquals(3, items.get(3).getId());
+        assertEquals("item 3", items.get(3).getName());
+        assertEquals(0, new BigDecimal("3.5").compareTo(items.get(3).getUnitPrice()));
+        assertEquals(LocalDate.of(2022, 1, 4), items.get(3).getCreatedOn());
+        assertEquals(10, query.setParameter("max", 10).queryForObjects(Item.class).size());
+        assertTrue(query.rowMapper(Item.class) == sqlExecutorProvider
+                .forSql("select * from test24 where id < :max order by id").rowMapper(Item.class));
+
+        List<ItemView> views = sqlExecutorProvider.forSql("select name, id, quantity from test24 order by id")
+                .queryForObjects(ItemView.class);
+        assertEquals(10, views.size());
+        assertEquals(7, views.get(7).id);
+        assertEquals("item 7", views.get(7).name);
+        assertEquals(7L, views.get(7).quantity);
+        assertNull(views.get(6).quantity);
+
+        assertEquals(List.of(LocalDate.of(2022, 1, 1), LocalDate.of(2022, 1, 2)),
+                sqlExecutorProvider.forSql("select created_on from test24 where id < 2 order by id")
+                        .queryForObjects(LocalDate.class));
+    }
+
+    @Test
+    void testQueryForScalar() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test25 (id INTEGER, uid UUID, created TIMESTAMP, born DATE, "
+                + "ratio DOUBLE, data VARBINARY(16), kind VARCHAR(16));").executeDDL();
+        UUID uid = UUID.randomUUID();
+        Instant created = Instant.parse("2022-08-01T10:15:30Z");
+        sqlExecutorProvider.forSql("INSERT INTO test25 VALUES (:id, :uid, :created, :born, :ratio, :data, :kind)")
+                .setParameter("id", 1)
+                .setParameter("uid", uid)
+                .setParameter("created", Timestamp.from(created))
+                .setParameter("born", java.sql.Date.valueOf(LocalDate.of(1990, 5, 17)))
+                .setParameter("ratio", 0.25)
+                .setParameter("data", new byte[] { 1, 2, 3 })
+                .setParameter("kind", SqlOperation.BATCH.name())
+                .update();
+        sqlExecutorProvider.forSql("INSERT INTO test25 (id) VALUES (2)").executeDDL();
+
+        SqlExecutor row = sqlExecutorProvider.forSql("select * from test25 where id = :id").setParameter("id", 1);
+        assertEquals(uid, row.queryForScalar(UUID.class, 2));
+        assertEquals(created, row.queryForScalar(Instant.class, 3));
+        assertEquals(LocalDate.of(1990, 5, 17), row.queryForScalar(LocalDate.class, 4));
+        assertEquals(0.25, row.queryForScalar(Double.class, 5));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, row.queryForScalar(byte[].class, 6));
+        assertEquals(SqlOperation.BATCH, row.queryForScalar(SqlOperation.class, 7));
+        assertEquals(1L, row.queryForScalar(Long.class));
+        assertThrows(InvalidArgumentException.class, () -> row.queryForScalar(Long.class, 0));
+
+        row.setParameter("id", 2);
+        assertNull(row.queryForScalar(Double.class, 5));
+        assertEquals(0.0, row.queryForScalar(double.class, 5));
+        assertNull(row.queryForScalar(UUID.class, 2));
+        row.setParameter("id", 3);
+        assertNull(row.queryForScalar(String.class));
+
+        assertTrue(ResultSetExtractorFactory.scalarExtractor(LocalDate.class)
+                == ResultSetExtractorFactory.scalarExtractor(LocalDate.class, 1));
+        assertTrue(ResultSetExtractorFactory.longExtractor() == ResultSetExtractorFactory.longExtractor());
+    }
+
+    @Test
+    void testPreparedExecutor() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test26 (id INTEGER, str text, copy text);").executeDDL();
+        // the first exception translator reads the error codes over a connection of its own
+        sqlExecutorProvider.forSql("select id from test26").prepare().close();
+        InMemorySqlMetrics metrics = new InMemorySqlMetrics();
+        sqlExecutorProvider.setMetrics(metrics);
+        try {
+            try (PreparedSqlExecutor insert = sqlExecutorProvider
+                    .forSql("INSERT INTO test26 (id, str, copy) VALUES (:id, :str, :str)")
+                    .setParameter("str", "same").setParameter("unused", 1).prepare()) {
+                assertThrows(InvalidArgumentException.class, () -> insert.setParameter("missing", 1));
+                assertThrows(RequiredValueException.class, insert::update);
+                for (int i = 0; i < 50; i++) {
+                    assertEquals(1, insert.setParameter("id", i).update());
+                }
+                for (int i = 50; i < 100; i++) {
+                    insert.setParameter("id", i).setParameter("str", String.format("str: %d", i)).addBatch();
+                }
+                assertEquals(50, insert.executeBatch().length);
+                assertEquals(1, metrics.getConnectionAcquireStatistics().getCount());
+            }
+            try (PreparedSqlExecutor touch = sqlExecutorProvider
+                    .forSql("UPDATE test26 SET copy = copy WHERE id = :id").prepare()) {
+                for (int id : new int[] { 98, 99, 1000 }) {
+                    touch.setParameter("id", id).addBatch();
+                }
+                touch.executeBatch();
+            }
+            // rows updated, not statements batched
+            assertEquals(50, metrics.getStatistics(SqlOperation.BATCH,
+                    "INSERT INTO test26 (id, str, copy) VALUES (:id, :str, :str)").getRowCount());
+            assertEquals(2, metrics.getStatistics(SqlOperation.BATCH,
+                    "UPDATE test26 SET copy = copy WHERE id = :id").getRowCount());
+        } finally {
+            sqlExecutorProvider.setMetrics(null);
+        }
+        assertEquals(50L, sqlExecutorProvider.forSql("select count(*) from test26 where str = 'same' and copy = str")
+                .queryForLong());
+        assertEquals(100L, sqlExecutorProvider.forSql("select count(*) from test26 where copy = str").queryForLong());
+
+        PreparedSqlExecutor select = sqlExecutorProvider.forSql("select str from test26 where id = :id").prepare();
+        try {
+            assertEquals("same", select.setParameter("id", 10).queryForScalar(String.class));
+            assertEquals(List.of("str: 70"), select.setParameter("id", 70).query((rs, rowNum) -> rs.getString(1)));
+        } finally {
+            select.close();
+        }
+        assertThrows(IllegalStateException.class, () -> select.setParameter("id", 1));
+
+        try (PreparedSqlExecutor typed = sqlExecutorProvider
+                .forSql("INSERT INTO test26 (id, str, copy) VALUES (:id, :str, :copy)")
+                .setParameter("str", Duration.ofMinutes(90), Types.VARCHAR).prepare()) {
+            typed.setParameter("id", 200).setParameter("copy", new SqlParameterValue(Types.VARCHAR, 8)).update();
+        }
+        assertEquals(1L, sqlExecutorProvider.forSql(
+                "select count(*) from test26 where id = 200 and str = 'PT1H30M' and copy = '8'").queryForLong());
+    }
+
+    @Test
+    void testTypedParameterCopies() throws Exception {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test32 (id INTEGER, str text);").executeDDL();
+        // a Duration bound untyped is rejected by a text column, bound as VARCHAR it is its text
+        SqlExecutor batch = sqlExecutorProvider.forSql("INSERT INTO test32 (id, str) VALUES (:id, :str)");
+        for (int i = 1; i <= 3; i++) {
+            batch.setParameter("id", i).setParameter("str", Duration.ofMinutes(i), Types.VARCHAR).addBatch();
+        }
+        batch.executeBatch();
+        SqlExecutor rewritten = sqlExecutorProvider.forSql("INSERT INTO test32 (id, str) VALUES (:id, :str)")
+                .rewriteBatchedInserts();
+        for (int i = 4; i <= 6; i++) {
+            rewritten.setParameter("id", i).setParameter("str", Duration.ofMinutes(i), Types.VARCHAR).addBatch();
+        }
+        rewritten.executeBatch();
+        sqlExecutorProvider.forSql("INSERT INTO test32 (id, str) VALUES (:id, :str)").setParameter("id", 7)
+                .setParameter("str", Duration.ofMinutes(7), Types.VARCHAR).updateAsync().get(30, TimeUnit.SECONDS);
+        assertEquals(7L, sqlExecutorProvider.forSql("select count(*) from test32 where str like 'PT%M'")
+                .queryForLong());
+
+        SqlExecutor typed = sqlExecutorProvider.forSql("select id from test32 where str <> :str order by id")
+                .setParameter("str", Duration.ofMinutes(1), Types.VARCHAR);
+        QueryPage<Long> page = typed.queryPage(ResultSetExtractorFactory.longListMapper(), 0, 4);
+        assertEquals(List.of(2L, 3L, 4L, 5L), page.getContent());
+        assertEquals(6L, page.getTotal());
+        assertEquals(6L, typed.countAsync().get(30, TimeUnit.SECONDS));
+        try (Stream<Long> rows = sqlExecutorProvider.forSql("select id from test32 where str <> :str")
+                .setParameter("str", Duration.ofMinutes(1), Types.VARCHAR).partitionedScan("id", 1, 8)
+                .setOrdered(true).stream(ResultSetExtractorFactory.longListMapper())) {
+            assertEquals(List.of(2L, 3L, 4L, 5L, 6L, 7L), rows.collect(Collectors.toList()));
+        }
+    }
+
+    private static DataSource replica(String name) {
+        DataSource dataSource = new SimpleDriverDataSource(new org.hsqldb.jdbcDriver(),
+                "jdbc:hsqldb:mem:" + name + ";sql.syntax_pgs=true", "sa", "");
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.execute("CREATE TABLE test27 (id INTEGER, origin text)");
+        template.update("INSERT INTO test27 (id, origin) VALUES (1, ?)", name);
+        return dataSource;
+    }
+
+    @Test
+    void testReplicaRouting() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        assertThrows(InvalidArgumentException.class, () -> new ReplicaRouting(List.of()));
+        sqlExecutorProvider.forSql("CREATE TABLE test27 (id INTEGER, origin text);").executeDDL();
+        sqlExecutorProvider.forSql("INSERT INTO test27 (id, origin) VALUES (:id, 'primary')").setParameter("id", 1)
+                .update();
+        ReplicaRouting routing = new ReplicaRouting(List.of(replica("replica1"), replica("replica2")));
+        sqlExecutorProvider.setReplicaRouting(routing);
+        try {
+            SqlExecutor origin = sqlExecutorProvider.forSql("select origin from test27 where id = 1");
+            assertEquals("replica1", origin.queryForString());
+            assertEquals("replica2", origin.queryForString());
+            assertEquals("replica1", origin.queryForString());
+            assertEquals(2, routing.getReplicaReads(0));
+            assertEquals(1, routing.getReplicaReads(1));
+
+            SqlExecutor update = sqlExecutorProvider.forSql("UPDATE test27 SET origin = :origin WHERE id = 1");
+            update.setParameter("origin", "primary updated").update();
+            assertEquals("replica2", origin.queryForString());
+            assertEquals("primary updated", sqlExecutorProvider.forSql("select origin from test27 where id = 1")
+                    .readFromPrimary().queryForString());
+
+            routing.setReadYourWritesWindow(Duration.ofMinutes(1));
+            update.setParameter("origin", "primary").update();
+            assertEquals("primary", origin.queryForString());
+            assertEquals(1, routing.getPrimaryReads());
+            routing.setReadYourWritesWindow(Duration.ZERO);
+
+            routing.setStrategy(ReplicaRouting.Strategy.LEAST_OUTSTANDING);
+            try (Stream<String> open = sqlExecutorProvider.forSql("select origin from test27")
+                    .queryForStream((rs, rowNum) -> rs.getString(1))) {
+                int busy = routing.getOutstanding(0) == 1 ? 0 : 1;
+                assertEquals(1, routing.getOutstanding(busy));
+                assertEquals(busy == 0 ? "replica2" : "replica1", origin.queryForString());
+                assertEquals(busy == 0 ? "replica2" : "replica1", origin.queryForString());
+                assertEquals(1, open.count());
+            }
+            assertEquals(0, routing.getOutstanding(0));
+            assertEquals(0, routing.getOutstanding(1));
+
+            List<String> seen = new ArrayList<>();
+            origin.forEachRow(rs -> {
+                seen.add(rs.getString(1));
+                try {
+                    update.setParameter("origin", "written in callback").update();
+                } catch (SqlException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            assertEquals(1, seen.size());
+            assertTrue(seen.get(0).startsWith("replica"));
+            assertEquals("written in callback", sqlExecutorProvider.forSql("select origin from test27 where id = 1")
+                    .readFromPrimary().queryForString());
+            update.setParameter("origin", "primary").update();
+        } finally {
+            sqlExecutorProvider.setReplicaRouting(null);
+        }
+        assertEquals("primary", sqlExecutorProvider.forSql("select origin from test27 where id = 1").queryForString());
+    }
+
+    @Test
+    void testInListExpansion() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        sqlExecutorProvider.forSql("CREATE TABLE test28 (id BIGINT, str text, tag text);").executeDDL();
+        SqlExecutor insertQuery = sqlExecutorProvider.forSql("INSERT INTO test28 (id, str) VALUES (:id, :str)");
+        for (long i = 1; i <= 2000; i++) {
+            insertQuery.setParameter("id", i).setParameter("str", String.format("str: %d", i)).addBatch();
+        }
+        insertQuery.executeBatch();
+        List<Long> ids = LongStream.rangeClosed(1, 1500).boxed().collect(Collectors.toList());
+        List<String> strs = List.of("str: 1", "str: 2", "str: 3", "str: 4", "str: 5");
+
+        assertEquals(1, InListExpansion.paddedSize(1));
+        assertEquals(8, InListExpansion.paddedSize(5));
+        assertEquals(8, InListExpansion.paddedSize(8));
+        assertEquals(2048, InListExpansion.paddedSize(1500));
+
+        InListExpansion expansion = new InListExpansion();
+        assertThrows(InvalidArgumentException.class, () -> expansion.setArrayThreshold(0));
+        String sql = "select count(*) from test28 where id in (:ids) and str in ( :strs ) and id <> :id";
+        MapSqlParameterSource parameters = new MapSqlParameterSource("ids", ids).addValue("strs", strs)
+                .addValue("id", 0);
+        InListExpansion.Expanded expanded = expansion.expand(sql, parameters);
+        assertEquals("select count(*) from test28 where id in (SELECT * FROM UNNEST(CAST(:ids AS BIGINT ARRAY)))"
+                + " and str in ( :strs ) and id <> :id", expanded.sql);
+        assertEquals(8, ((List<?>) expanded.parameters.getValue("strs")).size());
+        assertEquals(0, expanded.parameters.getValue("id"));
+        assertNull(expansion.expand(sql, new MapSqlParameterSource("ids", List.of(1L, 2L)).addValue("id", 0)));
+        expanded = expansion.setStrategy(InListExpansion.Strategy.ARRAY)
+                .expand("select :ids, ':ids' from test28 where id in (:ids)", parameters);
+        assertNull(expanded);
+        expanded = expansion.expand("select str from test28 where id in (:ids) or id in (:ids)", parameters);
+        assertEquals("select str from test28 where id in (SELECT * FROM UNNEST(CAST(:ids AS BIGINT ARRAY)))"
+                + " or id in (SELECT * FROM UNNEST(CAST(:ids AS BIGINT ARRAY)))", expanded.sql);
+        List<Timestamp> dates = List.of(new Timestamp(0), new Timestamp(1), new Timestamp(2));
+        expanded = expansion.setStrategy(InListExpansion.Strategy.AUTO)
+                .expand("select :ids from test28 where id in (:ids) and created in (:dates)",
+                        new MapSqlParameterSource("ids", List.of(1L, 2L, 3L)).addValue("dates", dates));
+        assertEquals(3, ((List<?>) expanded.parameters.getValue("ids")).size());
+        assertEquals(4, ((List<?>) expanded.parameters.getValue("dates")).size());
+        assertThrows(InvalidArgumentException.class, () -> expansion.setMaxPaddedSize(0));
+        assertNull(expansion.setMaxPaddedSize(2).expand("select * from test28 where created in (:dates)",
+                new MapSqlParameterSource("dates", dates)));
+
+        SqlExecutor count = sqlExecutorProvider.forSql(sql);
+        SqlExecutor update = sqlExecutorProvider.forSql("update test28 set tag = :tag where id in (:ids)");
+        for (InListExpansion.Strategy strategy : InListExpansion.Strategy.values()) {
+            sqlExecutorProvider.setInListExpansion(new InListExpansion().setStrategy(strategy));
+            try {
+                assertEquals(5L, count.setParameter("ids", ids).setParameter("strs", strs).setParameter("id", 0)
+                        .queryForLong());
+                assertEquals(3L, count.setParameter("ids", List.of(1L, 3L, 5L)).queryForLong());
+                update.setParameter("ids", ids.subList(1, 1500)).setParameter("tag", strategy.name()).update();
+                assertEquals(1499L, sqlExecutorProvider.forSql("select count(*) from test28 where tag = :tag")
+                        .setParameter("tag", strategy.name()).queryForLong());
+            } finally {
+                sqlExecutorProvider.setInListExpansion(null);
+            }
+        }
+    }
+
+    @Test
+    void testMultiRowInsert() throws SqlException, InvalidArgumentException {
+        assertNotNull(sqlExecutorProvider);
+        assertNull(MultiRowInsert.parse("INSERT INTO test29 (id) SELECT id FROM test8 WHERE id = :id"));
+        assertNull(MultiRowInsert.parse("INSERT INTO test29 (id) VALUES (:id), (:other)"));
+        assertNull(MultiRowInsert.parse("UPDATE test29 SET str = :str"));
+        MultiRowInsert insert = MultiRowInsert
+                .parse("insert into test29 (id, str, created) values (:id, ':str' || :str::text, now()) returning id");
+        assertEquals(List.of("id", "str"), insert.getParameterNames());
+        assertEquals("insert into test29 (id, str, created) values (?, ':str' || ?::text, now()),"
+                + " (?, ':str' || ?::text, now()) returning id", insert.sql(2));
+        assertEquals(3, insert.rowsPerStatement(7));
+
+        sqlExecutorProvider.forSql("CREATE TABLE test29 (id INTEGER, str text);").executeDDL();
+        SqlExecutor insertQuery = sqlExecutorProvider.forSql("INSERT INTO test29 (id, str) VALUES (:id, :str)")
+                .rewriteBatchedInserts().setMaxStatementParameters(200);
+        assertThrows(InvalidArgumentException.class, () -> insertQuery.setMaxStatementParameters(0));
+        for (int i = 0; i < 2550; i++) {
+            insertQuery.setParameter("id", i).setParameter("str", i % 2 == 0 ? String.format("str: %d", i) : null)
+                    .addBatch();
+        }
+        int[][] counts = insertQuery.executeBatch();
+        assertEquals(3, counts.length);
+        assertEquals(1000, counts[0].length);
+        assertEquals(550, counts[2].length);
+        assertTrue(Arrays.stream(counts).flatMapToInt(Arrays::stream).allMatch(count -> count == 1));
+
+        assertEquals(2550, sqlExecutorProvider.forSql("select * from test29").count().intValue());
+        assertEquals(1275, sqlExecutorProvider.forSql("select * from test29 where str is null").count().intValue());
+        assertEquals("str: 2548", sqlExecutorProvider.forSql("select str from test29 where id = :id")
+                .setParameter("id", 2548).queryForString());
+
+        SqlExecutor copyQuery = sqlExecutorProvider
+                .forSql("INSERT INTO test29 (id, str) SELECT id + 10000, str FROM test29 WHERE id = :id")
+                .rewriteBatchedInserts();
+        copyQuery.setParameter("id", 1).addBatch().setParameter("id", 2).addBatch();
+        assertArrayEquals(new int[] { 1, 1 }, copyQuery.executeBatch()[0]);
+        assertEquals(2552, sqlExecutorProvider.forSql("select * from test29").count().intValue());
+    }
+
+    @Test
+    void testSqlCatalog(@TempDir Path tempDir)
+            throws SqlException, InvalidArgumentException, IOException, InterruptedException {
+        assertNotNull(sqlExecutorProvider);
+        assertThrows(InvalidArgumentException.class, () -> sqlExecutorProvider.forNamedQuery("orders.byCustomer"));
+        SqlCatalog catalog = sqlExecutorProvider.loadSqlCatalog("classpath:catalog");
+        try {
+            assertEquals(3, catalog.size());
+            assertTrue(catalog.contains("orders.insert"));
+            assertThrows(InvalidArgumentException.class, () -> sqlExecutorProvider.forNamedQuery("orders.unknown"));
+            sqlExecutorProvider.forNamedQuery("createOrders").executeDDL();
+            for (int i = 1; i <= 4; i++) {
+                sqlExecutorProvider.forNamedQuery("orders.insert").setParameter("id", i)
+                        .setParameter("customer", i % 2 == 0 ? "even" : "odd")
+                        .setParameter("total", BigDecimal.valueOf(i)).update();
+            }
+            SqlExecutor byCustomer = sqlExecutorProvider.forNamedQuery("orders.byCustomer").setParameter("customer",
+                    "even");
+            assertEquals(List.of(2L, 4L), byCustomer.queryForLongList());
+            assertEquals(2L, byCustomer.count());
+        } finally {
+            sqlExecutorProvider.setSqlCatalog(null);
+        }
+
+        Files.createDirectories(tempDir.resolve("reports"));
+        Files.writeString(tempDir.resolve("reports/total.sql"), "select sum(total) from test30");
+        try (SqlCatalog watched = new SqlCatalog(sqlExecutorProvider, tempDir.toUri().toString()).load().watch()) {
+            SqlExecutor total = watched.forNamedQuery("reports.total");
+            assertEquals(0, BigDecimal.valueOf(10).compareTo(total.queryForBigDecimal()));
+            Files.writeString(tempDir.resolve("reports/total.sql"), "select max(total) from test30");
+            Files.writeString(tempDir.resolve("count.sql"), "select count(*) from test30");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!watched.contains("count") && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(4L, watched.forNamedQuery("count").queryForLong());
+            total = watched.forNamedQuery("reports.total");
+            assertEquals(0, BigDecimal.valueOf(4).compareTo(total.queryForBigDecimal()));
+
+            Files.createDirectories(tempDir.resolve("audit"));
+            Files.writeString(tempDir.resolve("audit/first.sql"), "select min(total) from test30");
+            while (!watched.contains("audit.first") && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(watched.contains("audit.first"));
+            Thread.sleep(200);
+            Files.writeString(tempDir.resolve("audit/second.sql"), "select max(total) from test30");
+            while (!watched.contains("audit.second") && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(watched.contains("audit.second"));
+        }
+    }
+
+    @Test
+    void testPooledDataSource() throws SqlException, InvalidArgumentException, SQLException, InterruptedException,
+            ExecutionException, TimeoutException {
+        PooledDataSource pool = new PooledDataSource(new SimpleDriverDataSource(new org.hsqldb.jdbcDriver(),
+                "jdbc:hsqldb:mem:testdb;sql.syntax_pgs=true", "sa", "")).setMaxPoolSize(2)
+                .setConnectionTimeout(Duration.ofMillis(200));
+        assertThrows(InvalidArgumentException.class, () -> pool.setMaxPoolSize(0));
+        assertThrows(SQLFeatureNotSupportedException.class, () -> pool.getConnection("sa", ""));
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean(DataSource.class, () -> pool);
+        context.refresh();
+        SqlExecutorProvider provider = new SqlExecutorProvider(context);
+        try {
+            assertEquals(2, provider.getAsyncConcurrency());
+            provider.forSql("CREATE TABLE test31 (id INTEGER);").executeDDL();
+            for (int i = 0; i < 10; i++) {
+                provider.forSql("INSERT INTO test31 (id) VALUES (:id)").setParameter("id", i).update();
+            }
+            assertEquals(10L, provider.forSql("select count(*) from test31").queryForLong());
+            assertEquals(1, pool.getCreatedCount());
+            assertEquals(12, pool.getBorrowCount());
+            assertEquals(1, pool.getIdleConnections());
+
+            Connection first = pool.getConnection();
+            first.setAutoCommit(false);
+            Statement leaked = first.createStatement();
+            leaked.executeUpdate("INSERT INTO test31 (id) VALUES (100)");
+            Connection second = pool.getConnection();
+            assertEquals(2, pool.getActiveConnections());
+            assertThrows(SQLTransientConnectionException.class, pool::getConnection);
+            assertEquals(1, pool.getTimeoutCount());
+
+            pool.setConnectionTimeout(Duration.ofSeconds(30));
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return pool.getConnection();
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, executor);
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (pool.getThreadsAwaitingConnection() == 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(5);
+                }
+                first.close();
+                assertTrue(first.isClosed());
+                assertTrue(leaked.isClosed());
+                assertThrows(SQLException.class, () -> first.createStatement());
+                Connection handedOver = waiting.get(30, TimeUnit.SECONDS);
+                assertEquals(0, pool.getIdleConnections());
+                assertTrue(handedOver.getAutoCommit());
+                handedOver.close();
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(10L, provider.forSql("select count(*) from test31").queryForLong());
+
+            pool.setValidateAfterIdle(Duration.ZERO);
+            second.unwrap(Connection.class).close();
+            second.close();
+            assertEquals(10L, provider.forSql("select count(*) from test31").queryForLong());
+            assertEquals(1, pool.getValidationFailureCount());
+            assertEquals(1, pool.getTotalConnections());
+
+            pool.close();
+            assertEquals(0, pool.getTotalConnections());
+            assertThrows(SQLException.class, pool::getConnection);
+        } finally {
+            provider.destroy();
+            context.close();
+        }
+    }
+
 }
@@ -0,0 +1,52 @@
+package dev.fkmatsuda.spring.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.CharBuffer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class SqlStatementSplitterTest {
+
+    private static final String SCRIPT = "create table t (id int, str text);\n"
+            + "-- a comment; with a semicolon\n"
+            + "insert into t values (1, 'a;b''c');\n"
+            + "/* block; comment */ insert into \"odd;name\" values (2, `x;y`);\n"
+            + "create function f() returns int as $body$ begin; return 1; end; $body$ language plpgsql;\n"
+            + "select $$;$$, $1 from t;;\n"
+            + "  ;\n"
+            + "-- trailing comment";
+
+    private static final List<String> EXPECTED = List.of(
+            "create table t (id int, str text)",
+            "-- a comment; with a semicolon\ninsert into t values (1, 'a;b''c')",
+            "/* block; comment */ insert into \"odd;name\" values (2, `x;y`)",
+            "create function f() returns int as $body$ begin; return 1; end; $body$ language plpgsql",
+            "select $$;$$, $1 from t");
+
+    @Test
+    void testSplit() {
+        assertEquals(EXPECTED, SqlStatementSplitter.split(SCRIPT));
+    }
+
+    @Test
+    void testSplitInSingleCharacterChunks() throws SQLException {
+        List<String> statements = new ArrayList<>();
+        SqlStatementSplitter splitter = new SqlStatementSplitter(statements::add);
+        for (int i = 0; i < SCRIPT.length(); i++) {
+            splitter.feed(CharBuffer.wrap(SCRIPT, i, i + 1));
+        }
+        splitter.finish();
+        assertEquals(EXPECTED, statements);
+    }
+
+    @Test
+    void testUnterminatedStatement() {
+        assertEquals(List.of("select 1", "select '2;"), SqlStatementSplitter.split("select 1; select '2;"));
+        assertEquals(List.of("select 1 /*/ 2; */"), SqlStatementSplitter.split("select 1 /*/ 2; */"));
+    }
+
+}
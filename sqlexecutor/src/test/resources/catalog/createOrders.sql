@@ -0,0 +1 @@
+CREATE TABLE test30 (id INTEGER, customer text, total DECIMAL(10, 2));
@@ -0,0 +1,4 @@
+SELECT id, customer, total
+  FROM test30
+ WHERE customer = :customer
+ ORDER BY id
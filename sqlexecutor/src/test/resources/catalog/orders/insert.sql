@@ -0,0 +1 @@
+INSERT INTO test30 (id, customer, total) VALUES (:id, :customer, :total)